@@ -0,0 +1,73 @@
+package ttaomae.exactcover;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ttaomae.exactcover.benchmark.Puzzle;
+
+/**
+ * Times covering and then uncovering a column of the full matrix of each
+ * puzzle, which is the innermost work of the search. Each operation takes
+ * the next primary column in turn, so the score is the mean over every
+ * column. This is in the same package as the engines so that it can cover
+ * columns directly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CoverBenchmark
+{
+    @Param({ "PENTOMINO_6X10", "PENTOMINO_3X20", "SOMA_CUBE" })
+    public Puzzle puzzle;
+
+    private DancingLinks dl;
+    private ArrayDancingLinks adl;
+    private int nPrimary;
+    private int next;
+
+    @Setup
+    public void setUp()
+    {
+        ExactCover ec = this.puzzle.createExactCover();
+        this.dl = new DancingLinks(ec);
+        this.adl = new ArrayDancingLinks(ec);
+        this.nPrimary = ec.getNumPrimaryColumns();
+    }
+
+    private int nextColumn()
+    {
+        int column = this.next;
+        this.next = (column + 1 == this.nPrimary) ? 0 : column + 1;
+        return column;
+    }
+
+    @Benchmark
+    public void dancingLinks()
+    {
+        int column = nextColumn();
+        this.dl.coverColumn(column);
+        this.dl.uncoverColumn(column);
+    }
+
+    @Benchmark
+    public void arrayDancingLinks()
+    {
+        int column = nextColumn();
+        this.adl.coverColumn(column);
+        this.adl.uncoverColumn(column);
+    }
+}
@@ -0,0 +1,57 @@
+package ttaomae.exactcover.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ttaomae.exactcover.DancingLinks;
+import ttaomae.exactcover.ExactCover;
+
+/**
+ * Times building the matrix of each puzzle, and building the links of
+ * DancingLinks from the matrix.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BuildBenchmark
+{
+    @Param({ "PENTOMINO_6X10", "PENTOMINO_5X12", "PENTOMINO_4X15", "PENTOMINO_3X20",
+             "SOMA_CUBE", "TETRIS_CUBE" })
+    public Puzzle puzzle;
+
+    private Puzzle.Source source;
+    private ExactCover ec;
+
+    @Setup
+    public void setUp()
+    {
+        this.source = this.puzzle.create();
+        this.ec = this.source.createExactCover();
+    }
+
+    @Benchmark
+    public ExactCover matrix()
+    {
+        return this.source.createExactCover();
+    }
+
+    @Benchmark
+    public DancingLinks links()
+    {
+        return new DancingLinks(this.ec);
+    }
+}
@@ -0,0 +1,85 @@
+package ttaomae.exactcover.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ttaomae.exactcover.ColumnChooser;
+import ttaomae.exactcover.DancingLinks;
+import ttaomae.exactcover.MinimumRemainingValues;
+
+/**
+ * Times counting every solution with DancingLinks using each way of
+ * choosing the column with the fewest rows. Scanning is faster for the
+ * puzzles with few columns, and the bucket lists of MinimumRemainingValues
+ * for the sudoku with thousands of columns. Always choosing the first
+ * column searches a far larger tree, so it is timed separately by
+ * {@link FirstColumnBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChooserBenchmark
+{
+    @Param({ "PENTOMINO_5X12", "SOMA_CUBE", "SUDOKU_25X25" })
+    public Puzzle puzzle;
+
+    @Param({ "SCAN", "MRV", "MRV_DEGREE" })
+    public Chooser chooser;
+
+    private DancingLinks dl;
+
+    @Setup
+    public void setUp()
+    {
+        this.dl = new DancingLinks(this.puzzle.createExactCover());
+        this.dl.setColumnChooser(this.chooser.create());
+    }
+
+    @Benchmark
+    public long count()
+    {
+        return this.dl.countSolutions();
+    }
+
+    public enum Chooser
+    {
+        /** The default scan of every column. */
+        SCAN {
+            @Override
+            ColumnChooser create()
+            {
+                return null;
+            }
+        },
+        MRV {
+            @Override
+            ColumnChooser create()
+            {
+                return new MinimumRemainingValues();
+            }
+        },
+        MRV_DEGREE {
+            @Override
+            ColumnChooser create()
+            {
+                return MinimumRemainingValues.preferringDegree();
+            }
+        };
+
+        abstract ColumnChooser create();
+    }
+}
@@ -0,0 +1,45 @@
+package ttaomae.exactcover.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ttaomae.exactcover.DancingLinks;
+import ttaomae.exactcover.FirstColumn;
+
+/**
+ * Times counting the solutions of the Soma cube while always choosing the
+ * first column. The pentomino boards take far too long this way.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FirstColumnBenchmark
+{
+    private DancingLinks dl;
+
+    @Setup
+    public void setUp()
+    {
+        this.dl = new DancingLinks(Puzzle.SOMA_CUBE.createExactCover());
+        this.dl.setColumnChooser(new FirstColumn());
+    }
+
+    @Benchmark
+    public long somaCube()
+    {
+        return this.dl.countSolutions();
+    }
+}
@@ -0,0 +1,187 @@
+package ttaomae.exactcover.benchmark;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import ttaomae.exactcover.ExactCover;
+import ttaomae.exactcover.polycubes.PolycubePuzzle;
+import ttaomae.exactcover.polycubes.SomaCubeSolver;
+import ttaomae.exactcover.polycubes.TetrisCubeSolver;
+import ttaomae.exactcover.polyominoes.Pentomino;
+import ttaomae.exactcover.polyominoes.Polyomino;
+import ttaomae.exactcover.polyominoes.PolyominoPuzzle;
+
+/**
+ * The puzzles used by the benchmarks, selected by name with the puzzle
+ * parameter.
+ */
+public enum Puzzle
+{
+    PENTOMINO_6X10 {
+        @Override
+        public Source create()
+        {
+            return pentominoes(6, 10);
+        }
+    },
+    PENTOMINO_5X12 {
+        @Override
+        public Source create()
+        {
+            return pentominoes(5, 12);
+        }
+    },
+    PENTOMINO_4X15 {
+        @Override
+        public Source create()
+        {
+            return pentominoes(4, 15);
+        }
+    },
+    PENTOMINO_3X20 {
+        @Override
+        public Source create()
+        {
+            return pentominoes(3, 20);
+        }
+    },
+    SOMA_CUBE {
+        @Override
+        public Source create()
+        {
+            return source(SomaCubeSolver.createPuzzle());
+        }
+    },
+    TETRIS_CUBE {
+        @Override
+        public Source create()
+        {
+            return source(TetrisCubeSolver.createPuzzle());
+        }
+    },
+    /**
+     * A 25x25 sudoku with 300 blank cells and 35 solutions. It has far more
+     * columns than the other puzzles, but few rows in each.
+     */
+    SUDOKU_25X25 {
+        @Override
+        public Source create()
+        {
+            return sudoku(5, 300);
+        }
+    };
+
+    /**
+     * Creates the puzzle, so that building its matrix can be timed without
+     * creating its pieces.
+     */
+    public abstract Source create();
+
+    /**
+     * Creates the matrix of the puzzle.
+     */
+    public ExactCover createExactCover()
+    {
+        return create().createExactCover();
+    }
+
+    /**
+     * A puzzle which can build its exact cover problem.
+     */
+    public interface Source
+    {
+        ExactCover createExactCover();
+    }
+
+    private static Source pentominoes(int width, int height)
+    {
+        Map<String, Polyomino> pieces = new HashMap<>();
+        pieces.put("F", Pentomino.newF());
+        pieces.put("I", Pentomino.newI());
+        pieces.put("L", Pentomino.newL());
+        pieces.put("N", Pentomino.newN());
+        pieces.put("P", Pentomino.newP());
+        pieces.put("T", Pentomino.newT());
+        pieces.put("U", Pentomino.newU());
+        pieces.put("V", Pentomino.newV());
+        pieces.put("W", Pentomino.newW());
+        pieces.put("X", Pentomino.newX());
+        pieces.put("Y", Pentomino.newY());
+        pieces.put("Z", Pentomino.newZ());
+
+        final PolyominoPuzzle puzzle = new PolyominoPuzzle(width, height, pieces);
+        return new Source() {
+            @Override
+            public ExactCover createExactCover()
+            {
+                return puzzle.createExactCover();
+            }
+        };
+    }
+
+    /**
+     * Creates a sudoku with boxes of the specified size, whose given cells
+     * are those of a fixed solution except for blank cells chosen at random.
+     */
+    private static Source sudoku(final int box, final int blanks)
+    {
+        return new Source() {
+            @Override
+            public ExactCover createExactCover()
+            {
+                int n = box * box;
+                boolean[] blank = new boolean[n * n];
+                Random random = new Random(5);
+                for (int i = 0; i < blanks;) {
+                    int cell = random.nextInt(n * n);
+                    if (!blank[cell]) {
+                        blank[cell] = true;
+                        i++;
+                    }
+                }
+
+                // each placement covers its cell, and its value in its row,
+                // column and box
+                String[] names = new String[4 * n * n];
+                for (int col = 0; col < names.length; col++) {
+                    names[col] = String.valueOf(col);
+                }
+                int[] offsets = new int[n * n * n + 1];
+                int[] columns = new int[4 * n * n * n];
+                int nRows = 0;
+                for (int row = 0; row < n; row++) {
+                    for (int col = 0; col < n; col++) {
+                        int given = ((row % box) * box + row / box + col) % n;
+                        int boxIndex = (row / box) * box + col / box;
+                        for (int value = 0; value < n; value++) {
+                            if (!blank[row * n + col] && value != given) {
+                                continue;
+                            }
+                            int start = offsets[nRows];
+                            columns[start] = row * n + col;
+                            columns[start + 1] = n * n + row * n + value;
+                            columns[start + 2] = 2 * n * n + col * n + value;
+                            columns[start + 3] = 3 * n * n + boxIndex * n + value;
+                            offsets[++nRows] = start + 4;
+                        }
+                    }
+                }
+                return new ExactCover(names, names.length,
+                        Arrays.copyOf(offsets, nRows + 1), columns, false);
+            }
+        };
+    }
+
+    private static Source source(final PolycubePuzzle puzzle)
+    {
+        return new Source() {
+            @Override
+            public ExactCover createExactCover()
+            {
+                return puzzle.createExactCover();
+            }
+        };
+    }
+}
@@ -0,0 +1,47 @@
+package ttaomae.exactcover.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ttaomae.exactcover.polycubes.PolycubePuzzle;
+import ttaomae.exactcover.polycubes.TetrisCubeSolver;
+
+/**
+ * Times counting the solutions of the Tetris cube with symmetry breaking,
+ * which finds one solution from each class of symmetric solutions. Counting
+ * every solution takes too long to repeat, and even this takes minutes, so
+ * each count is timed once.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReducedSolveBenchmark
+{
+    private PolycubePuzzle tetris;
+
+    @Setup
+    public void setUp()
+    {
+        this.tetris = TetrisCubeSolver.createPuzzle();
+        this.tetris.setSymmetryBreaking(true);
+    }
+
+    @Benchmark
+    public long tetrisCube()
+    {
+        return this.tetris.countSolutions();
+    }
+}
@@ -0,0 +1,91 @@
+package ttaomae.exactcover.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ttaomae.exactcover.ArrayDancingLinks;
+import ttaomae.exactcover.BitsetAlgorithmX;
+import ttaomae.exactcover.DancingCells;
+import ttaomae.exactcover.DancingLinks;
+import ttaomae.exactcover.ExactCover;
+import ttaomae.exactcover.ExactCoverSolver;
+
+/**
+ * Times counting every solution of each puzzle with each engine. A single
+ * count can take several seconds, in which case each iteration is one
+ * count.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SolveBenchmark
+{
+    @Param({ "PENTOMINO_6X10", "PENTOMINO_5X12", "PENTOMINO_4X15", "PENTOMINO_3X20",
+             "SOMA_CUBE" })
+    public Puzzle puzzle;
+
+    @Param({ "DANCING_LINKS", "ARRAY_DANCING_LINKS", "BITSET", "DANCING_CELLS" })
+    public Engine engine;
+
+    private ExactCoverSolver solver;
+
+    @Setup
+    public void setUp()
+    {
+        this.solver = this.engine.create(this.puzzle.createExactCover());
+    }
+
+    @Benchmark
+    public long count()
+    {
+        return this.solver.countSolutions();
+    }
+
+    public enum Engine
+    {
+        DANCING_LINKS {
+            @Override
+            ExactCoverSolver create(ExactCover ec)
+            {
+                return new DancingLinks(ec);
+            }
+        },
+        ARRAY_DANCING_LINKS {
+            @Override
+            ExactCoverSolver create(ExactCover ec)
+            {
+                return new ArrayDancingLinks(ec);
+            }
+        },
+        BITSET {
+            @Override
+            ExactCoverSolver create(ExactCover ec)
+            {
+                return new BitsetAlgorithmX(ec);
+            }
+        },
+        DANCING_CELLS {
+            @Override
+            ExactCoverSolver create(ExactCover ec)
+            {
+                return new DancingCells(ec);
+            }
+        };
+
+        abstract ExactCoverSolver create(ExactCover ec);
+    }
+}
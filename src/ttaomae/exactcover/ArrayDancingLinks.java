@@ -0,0 +1,613 @@
+package ttaomae.exactcover;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A Dancing Links solver which stores the sparse matrix in flat int arrays
+ * instead of a graph of node objects, using the layout described by Knuth.
+ * Index 0 is the root, indices 1 through n are the column headers and every
+ * index after that is a 1 in the matrix. A node is referred to by its index
+ * and its links are stored in the left, right, up, down and column arrays.
+ */
+public class ArrayDancingLinks implements ExactCoverSolver
+{
+    private static final int ROOT = 0;
+    /**
+     * During a parallel search, a task splits off its unexplored branches
+     * once the number of tasks queued by its worker, beyond those likely to
+     * be stolen by idle workers, is no more than this.
+     */
+    private static final int SPLIT_THRESHOLD = 0;
+
+    private final String[] names;
+    /**
+     * The rows in compressed sparse row form, shared with the ExactCover and
+     * never modified.
+     */
+    private final int[] offsets;
+    private final int[] columns;
+
+    private final int[] left;
+    private final int[] right;
+    private final int[] up;
+    private final int[] down;
+    private final int[] column;
+    /** The number of nodes in each column. Only valid for column headers. */
+    private final int[] size;
+    /** The row which contains each node. Only valid for non-header nodes. */
+    private final int[] row;
+
+    /** The first node of each row selected before searching. */
+    private int[] selected;
+    /** The columns of every selected row. */
+    private BitSet selectedColumns;
+
+    /**
+     * Set once the search should stop. During a parallel search, every task
+     * shares the same flag so that they all stop together.
+     */
+    private AtomicBoolean stopped;
+
+    /**
+     * Constructs a new ArrayDancingLinks from an ExactCover. Colored rows are
+     * not supported, use DancingLinks instead.
+     *
+     * @param ec
+     */
+    public ArrayDancingLinks(ExactCover ec)
+    {
+        if (ec.hasColors()) {
+            throw new IllegalArgumentException("ArrayDancingLinks does not support colors");
+        }
+
+        PhaseEvent event = new PhaseEvent("build links");
+        event.begin();
+
+        this.names = ec.getNames();
+        this.offsets = ec.getOffsetArray();
+        this.columns = ec.getColumnArray();
+        int nRows = ec.getNumRows();
+
+        int nColumns = this.names.length;
+        int nNodes = 1 + nColumns + this.offsets[nRows];
+
+        this.left = new int[nNodes];
+        this.right = new int[nNodes];
+        this.up = new int[nNodes];
+        this.down = new int[nNodes];
+        this.column = new int[nNodes];
+        this.size = new int[1 + nColumns];
+        this.row = new int[nNodes];
+
+        // create root and column headers
+        // secondary columns are not in the header list so they are never
+        // chosen, and the search ends once every primary column is covered
+        int nPrimary = ec.getNumPrimaryColumns();
+        for (int c = 0; c <= nColumns; c++) {
+            if (c <= nPrimary) {
+                this.left[c] = (c == 0) ? nPrimary : c - 1;
+                this.right[c] = (c == nPrimary) ? ROOT : c + 1;
+            }
+            else {
+                this.left[c] = c;
+                this.right[c] = c;
+            }
+            this.up[c] = c;
+            this.down[c] = c;
+            this.column[c] = c;
+        }
+
+        int node = nColumns + 1;
+        for (int r = 0; r < nRows; r++) {
+            int first = node;
+            for (int i = this.offsets[r]; i < this.offsets[r + 1]; i++) {
+                int c = this.columns[i] + 1;
+                this.column[node] = c;
+                this.row[node] = r;
+                this.size[c]++;
+
+                // add new node to bottom of column
+                this.up[node] = this.up[c];
+                this.down[node] = c;
+                this.down[this.up[c]] = node;
+                this.up[c] = node;
+
+                // add new node to the end of the row
+                this.left[node] = (node == first) ? node : node - 1;
+                this.right[node] = first;
+                this.right[this.left[node]] = node;
+                this.left[first] = node;
+
+                node++;
+            }
+        }
+
+        this.selected = new int[0];
+        this.selectedColumns = new BitSet();
+
+        event.rows = nRows;
+        event.columns = nColumns;
+        event.commit();
+    }
+
+    /**
+     * Constructs a copy of another ArrayDancingLinks, including any columns
+     * which are currently covered.
+     */
+    private ArrayDancingLinks(ArrayDancingLinks other)
+    {
+        this.names = other.names;
+        this.offsets = other.offsets;
+        this.columns = other.columns;
+        this.column = other.column;
+        this.row = other.row;
+
+        this.left = other.left.clone();
+        this.right = other.right.clone();
+        this.up = other.up.clone();
+        this.down = other.down.clone();
+        this.size = other.size.clone();
+        this.selected = other.selected;
+        this.selectedColumns = other.selectedColumns;
+    }
+
+    @Override
+    public List<Solution> getSolutions()
+    {
+        SolutionCollector collector = new SolutionCollector();
+        solve(collector);
+        return collector.getSolutions();
+    }
+
+    @Override
+    public List<Solution> getSolutions(int nThreads, int depth)
+    {
+        SolutionCollector collector = new SolutionCollector();
+        solve(collector, nThreads, depth);
+        return collector.getSolutions();
+    }
+
+    @Override
+    public void solve(SolutionVisitor visitor)
+    {
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor must not be null");
+        }
+
+        SearchEvent event = new SearchEvent();
+        event.begin();
+
+        this.stopped = new AtomicBoolean(false);
+        long count = search(0, null, visitor, new int[this.names.length]);
+
+        event.commit(1, 0, count);
+    }
+
+    @Override
+    public void solve(SolutionVisitor visitor, int nThreads, int depth)
+    {
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor must not be null");
+        }
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("nThreads must be positive");
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must be non-negative");
+        }
+
+        if (nThreads == 1) {
+            solve(visitor);
+            return;
+        }
+
+        parallelSearch(visitor, nThreads, depth);
+    }
+
+    @Override
+    public long countSolutions()
+    {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+
+        this.stopped = new AtomicBoolean(false);
+        long count = search(0, null, null, new int[this.names.length]);
+
+        event.commit(1, 0, count);
+        return count;
+    }
+
+    @Override
+    public long countSolutions(int nThreads, int depth)
+    {
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("nThreads must be positive");
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must be non-negative");
+        }
+
+        if (nThreads == 1) {
+            return countSolutions();
+        }
+
+        return parallelSearch(null, nThreads, depth);
+    }
+
+    @Override
+    public void selectRows(Collection<BitSet> rows)
+    {
+        if (rows == null) {
+            throw new IllegalArgumentException("rows must not be null");
+        }
+
+        // find every row before covering any, so that nothing is covered if
+        // one of the rows is invalid
+        int[] selection = new int[rows.size()];
+        BitSet used = new BitSet();
+        int i = 0;
+        for (BitSet r : rows) {
+            if (r == null || r.isEmpty()) {
+                throw new IllegalArgumentException("rows must not be null or empty");
+            }
+            if (r.intersects(used) || r.intersects(this.selectedColumns)) {
+                throw new IllegalArgumentException("selected rows must not share a column");
+            }
+            used.or(r);
+
+            selection[i++] = findRow(r);
+        }
+        used.or(this.selectedColumns);
+
+        int[] newSelected = Arrays.copyOf(this.selected, this.selected.length + selection.length);
+        for (int j = 0; j < selection.length; j++) {
+            coverRow(selection[j]);
+            newSelected[this.selected.length + j] = selection[j];
+        }
+        this.selected = newSelected;
+        this.selectedColumns = used;
+    }
+
+    /**
+     * Returns a node of the row with exactly the specified columns, found by
+     * going down the column of its first 1. The row must not share a column
+     * with a selected row, otherwise it may have been removed from its other
+     * columns.
+     */
+    private int findRow(BitSet r)
+    {
+        if (r.length() > this.names.length) {
+            throw new IllegalArgumentException("a row cannot be longer than names");
+        }
+
+        int[] rowColumns = ExactCover.toColumnArray(r);
+        int c = rowColumns[0] + 1;
+        for (int n = this.down[c]; n != c; n = this.down[n]) {
+            if (Arrays.equals(getRow(this.row[n]), rowColumns)) {
+                return n;
+            }
+        }
+
+        throw new IllegalArgumentException("row is not in the exact cover: " + r);
+    }
+
+    /**
+     * Searches with a fork/join pool of the specified size. The search starts
+     * as a single task and each task splits off its unexplored branches
+     * whenever there are idle workers to steal them.
+     */
+    private long parallelSearch(SolutionVisitor visitor, int nThreads, int depth)
+    {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+
+        long count;
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            count = pool.invoke(new SearchTask(new int[0], visitor, depth,
+                    new AtomicBoolean(false)));
+        } finally {
+            pool.shutdown();
+        }
+
+        event.commit(nThreads, depth, count);
+        return count;
+    }
+
+    /**
+     * Searches for solutions, passing each one to the visitor. If the visitor
+     * is null, solutions are only counted and nothing is allocated for them.
+     * If task is not null, this search is part of a parallel search and may
+     * give some of its branches to other tasks.
+     *
+     * @return the number of solutions found
+     */
+    private long search(int k, SearchTask task, SolutionVisitor visitor, int[] partialSolution)
+    {
+        if (this.stopped.get()) {
+            return 0;
+        }
+
+        // no columns left -> found solution
+        if (this.right[ROOT] == ROOT) {
+            if (visitor != null) {
+                int[] prefix = (task == null) ? new int[0] : task.prefix;
+                if (!visitor.visit(toSolution(partialSolution, k, prefix))) {
+                    this.stopped.set(true);
+                }
+            }
+            return 1;
+        }
+
+        // pick and cover column with least 1s
+        int c = minColumn();
+        cover(c);
+
+        // go down column c
+        long count = 0;
+        for (int r = this.down[c]; r != c && !this.stopped.get(); r = this.down[r]) {
+            partialSolution[k] = r;
+
+            if (task != null) {
+                task.trySplit(this, k, partialSolution);
+            }
+
+            // go across row r and cover each column
+            for (int j = this.right[r]; j != r; j = this.right[j]) {
+                cover(this.column[j]);
+            }
+
+            count += search(k + 1, task, visitor, partialSolution);
+
+            // uncover in the reverse order
+            for (int j = this.left[r]; j != r; j = this.left[j]) {
+                uncover(this.column[j]);
+            }
+
+            // the rest of this column was given to other tasks
+            if (task != null && task.split[k]) {
+                task.split[k] = false;
+                break;
+            }
+        }
+
+        uncover(c);
+
+        return count;
+    }
+
+    private int minColumn()
+    {
+        int minColumn = this.right[ROOT];
+        int minSize = this.size[minColumn];
+        for (int c = this.right[minColumn]; c != ROOT; c = this.right[c]) {
+            if (this.size[c] < minSize) {
+                minColumn = c;
+                minSize = this.size[c];
+            }
+        }
+        return minColumn;
+    }
+
+    private void cover(int c)
+    {
+        this.left[this.right[c]] = this.left[c];
+        this.right[this.left[c]] = this.right[c];
+
+        // go down column
+        for (int i = this.down[c]; i != c; i = this.down[i]) {
+            // go across each row
+            for (int j = this.right[i]; j != i; j = this.right[j]) {
+                // remove j from column
+                this.up[this.down[j]] = this.up[j];
+                this.down[this.up[j]] = this.down[j];
+
+                this.size[this.column[j]]--;
+            }
+        }
+    }
+
+    private void uncover(int c)
+    {
+        // go up column
+        for (int i = this.up[c]; i != c; i = this.up[i]) {
+            // go across each row
+            for (int j = this.left[i]; j != i; j = this.left[j]) {
+                // add j back to column
+                this.size[this.column[j]]++;
+
+                this.up[this.down[j]] = j;
+                this.down[this.up[j]] = j;
+            }
+        }
+
+        this.left[this.right[c]] = c;
+        this.right[this.left[c]] = c;
+    }
+
+    /**
+     * Covers a column by its id, as the search does when branching on it, so
+     * that covering can be timed on its own. It must be uncovered with
+     * {@link #uncoverColumn(int)} before anything else is covered.
+     */
+    void coverColumn(int column)
+    {
+        cover(column + 1);
+    }
+
+    /**
+     * Undoes {@link #coverColumn(int)}.
+     */
+    void uncoverColumn(int column)
+    {
+        uncover(column + 1);
+    }
+
+    /**
+     * Covers every column of the row containing node r, in the same order as
+     * they are covered during the search.
+     */
+    private void coverRow(int r)
+    {
+        cover(this.column[r]);
+        for (int j = this.right[r]; j != r; j = this.right[j]) {
+            cover(this.column[j]);
+        }
+    }
+
+    /**
+     * Creates a Solution from the first k nodes of partialSolution, the nodes
+     * of the prefix and the selected nodes.
+     */
+    private Solution toSolution(int[] partialSolution, int k, int[] prefix)
+    {
+        List<int[]> result = new ArrayList<>();
+        for (int i = 0; i < k; i++) {
+            result.add(getRow(this.row[partialSolution[i]]));
+        }
+        for (int n : prefix) {
+            result.add(getRow(this.row[n]));
+        }
+        for (int n : this.selected) {
+            result.add(getRow(this.row[n]));
+        }
+        return new Solution(this.names, result);
+    }
+
+    /**
+     * Returns the ascending columns of row r.
+     */
+    private int[] getRow(int r)
+    {
+        return Arrays.copyOfRange(this.columns, this.offsets[r], this.offsets[r + 1]);
+    }
+
+    /**
+     * Searches the subtree below a partial solution. Each task searches its
+     * own copy of the links, and gives its unexplored branches to new tasks
+     * when other workers are idle.
+     */
+    private class SearchTask extends RecursiveTask<Long>
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** The nodes of the rows of the partial solution. */
+        private final int[] prefix;
+        private final SolutionVisitor visitor;
+        private final int depth;
+        private final AtomicBoolean stopped;
+        private final List<SearchTask> subtasks;
+        /** Whether the remaining branches at each level were given away. */
+        private final boolean[] split;
+
+        private SearchTask(int[] prefix, SolutionVisitor visitor, int depth,
+                           AtomicBoolean stopped)
+        {
+            this.prefix = prefix;
+            this.visitor = visitor;
+            this.depth = depth;
+            this.stopped = stopped;
+            this.subtasks = new ArrayList<>();
+            this.split = new boolean[ArrayDancingLinks.this.names.length];
+        }
+
+        @Override
+        protected Long compute()
+        {
+            if (this.stopped.get()) {
+                return 0L;
+            }
+
+            SearchTaskEvent event = new SearchTaskEvent();
+            event.begin();
+
+            // copy the links and cover the rows of the partial solution, node
+            // indices are the same in the copy
+            ArrayDancingLinks dl = new ArrayDancingLinks(ArrayDancingLinks.this);
+            for (int r : this.prefix) {
+                dl.coverRow(r);
+            }
+            dl.stopped = this.stopped;
+
+            long count = dl.search(0, this, this.visitor, new int[dl.names.length]);
+
+            // commit before joining, so the event only covers this task's
+            // own work
+            if (event.shouldCommit()) {
+                event.prefixSize = this.prefix.length;
+                event.depth = this.depth;
+                event.solutions = count;
+                event.subtasks = this.subtasks.size();
+                event.commit();
+            }
+
+            // join in reverse order so that tasks which were not stolen are
+            // taken straight from the top of this worker's queue
+            for (int i = this.subtasks.size() - 1; i >= 0; i--) {
+                count += this.subtasks.get(i).join();
+            }
+
+            return count;
+        }
+
+        /**
+         * Gives the unexplored branches at the shallowest level of the
+         * current partial solution to new tasks, if other workers are likely
+         * to be idle. The shallowest branches are the most likely to have
+         * large subtrees.
+         *
+         * @param dl the copy of the links being searched by this task
+         */
+        private void trySplit(ArrayDancingLinks dl, int k, int[] partialSolution)
+        {
+            if (getSurplusQueuedTaskCount() > SPLIT_THRESHOLD) {
+                return;
+            }
+
+            int[] down = dl.down;
+            int[] column = dl.column;
+            for (int i = 0; i <= k; i++) {
+                if (this.depth != 0 && this.prefix.length + i >= this.depth) {
+                    return;
+                }
+
+                int r = partialSolution[i];
+                if (this.split[i] || down[r] == column[r]) {
+                    continue;
+                }
+
+                SplitEvent event = new SplitEvent();
+                event.begin();
+                int nSubtasks = this.subtasks.size();
+
+                // node indices are the same in every copy, so the siblings
+                // of r can be covered in a copy of the original links
+                for (int sibling = down[r]; sibling != column[r]; sibling = down[sibling]) {
+                    int[] newPrefix = Arrays.copyOf(this.prefix, this.prefix.length + i + 1);
+                    System.arraycopy(partialSolution, 0, newPrefix, this.prefix.length, i);
+                    newPrefix[newPrefix.length - 1] = sibling;
+
+                    SearchTask task = new SearchTask(newPrefix, this.visitor,
+                            this.depth, this.stopped);
+                    task.fork();
+                    this.subtasks.add(task);
+                }
+                this.split[i] = true;
+
+                if (event.shouldCommit()) {
+                    event.prefixSize = this.prefix.length + i + 1;
+                    event.tasks = this.subtasks.size() - nSubtasks;
+                    event.commit();
+                }
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package ttaomae.exactcover;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads and writes exact cover problems in a compact binary format, which
+ * is much faster to load than text. The file is a header of little-endian
+ * ints, followed by the column names and the rows in compressed sparse row
+ * form:
+ *
+ * <pre>
+ * int     MAGIC, VERSION, number of columns, number of primary columns,
+ *         number of rows, number of 1s
+ * names   for each column, the length of its name in bytes, then its name
+ *         in UTF-8, padded to a multiple of 4 bytes
+ * int[]   the column of each 1, row after row
+ * int[]   the index of the first 1 of each row, and the number of 1s
+ * </pre>
+ *
+ * The offsets come after the columns so that a file can be written in one
+ * pass while reading rows, with only the counts in the header filled in at
+ * the end. Colors are not supported.
+ */
+public final class BinaryMatrix
+{
+    static final int MAGIC = 0x4D434558;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 6 * 4;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BinaryMatrix()
+    {
+    }
+
+    public static void main(String[] args) throws IOException, DataFormatException
+    {
+        if (args.length != 2) {
+            System.err.println("Usage:");
+            System.err.printf("\tjava %s <sparse text file> <binary file>%n",
+                    BinaryMatrix.class.getName());
+            System.exit(1);
+        }
+
+        try (SparseReader in = new SparseReader(new File(args[0]))) {
+            convert(in, new File(args[1]));
+        }
+    }
+
+    /**
+     * Writes an exact cover problem to a file.
+     *
+     * @throws IllegalArgumentException if the problem has colors
+     */
+    public static void write(ExactCover ec, File file) throws IOException
+    {
+        if (ec == null || file == null) {
+            throw new IllegalArgumentException("arguments must not be null");
+        }
+        if (ec.hasColors()) {
+            throw new IllegalArgumentException("colors are not supported");
+        }
+
+        int[] offsets = ec.getOffsetArray();
+        int[] columns = ec.getColumnArray();
+        try (Output out = new Output(file, ec.getNames(), ec.getNumPrimaryColumns())) {
+            for (int r = 0; r + 1 < offsets.length; r++) {
+                out.writeRow(columns, offsets[r], offsets[r + 1]);
+            }
+            out.finish();
+        }
+    }
+
+    /**
+     * Writes every remaining row of a sparse text file to a binary file,
+     * reading and writing each row once. Duplicate rows are written as they
+     * are, since finding them would mean holding every row in memory.
+     *
+     * @throws DataFormatException if the text file is invalid
+     */
+    public static void convert(SparseReader in, File file) throws IOException,
+            DataFormatException
+    {
+        if (in == null || file == null) {
+            throw new IllegalArgumentException("arguments must not be null");
+        }
+
+        try (Output out = new Output(file, in.getNames(), in.getNumPrimaryColumns())) {
+            int[] row;
+            while ((row = in.readRow()) != null) {
+                out.writeRow(row);
+            }
+            out.finish();
+        }
+    }
+
+    /**
+     * Reads an exact cover problem by mapping the file into memory. The
+     * columns and offsets are copied out of the mapping with bulk reads and
+     * used by the ExactCover without copying them again. The rows are kept
+     * in the order of the file, including any duplicates, so a file written
+     * from an ExactCover is read back with the same rows.
+     *
+     * @throws DataFormatException if the file is not in this format or is
+     *             invalid
+     */
+    public static ExactCover read(File file) throws IOException, DataFormatException
+    {
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null");
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new DataFormatException("file is too large to map: " + channel.size());
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            try {
+                return read(buffer);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new DataFormatException("file is truncated or invalid");
+            }
+        }
+    }
+
+    private static ExactCover read(ByteBuffer buffer) throws DataFormatException
+    {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new DataFormatException("not a binary matrix file");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new DataFormatException("unsupported version: " + version);
+        }
+        int nColumns = buffer.getInt();
+        int nPrimary = buffer.getInt();
+        int nRows = buffer.getInt();
+        int nOnes = buffer.getInt();
+        if (nColumns < 0 || nPrimary < 0 || nRows < 0 || nOnes < 0) {
+            throw new DataFormatException("negative count in header");
+        }
+
+        String[] names = new String[nColumns];
+        for (int i = 0; i < nColumns; i++) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new DataFormatException("invalid name length: " + length);
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + padding(length));
+        }
+
+        if (((long) nOnes + nRows + 1) * 4 != buffer.remaining()) {
+            throw new DataFormatException("file size does not match header");
+        }
+        IntBuffer ints = buffer.asIntBuffer();
+        int[] columns = new int[nOnes];
+        ints.get(columns);
+        int[] offsets = new int[nRows + 1];
+        ints.get(offsets);
+
+        if (offsets[0] != 0 || offsets[nRows] != nOnes) {
+            throw new DataFormatException("invalid row offsets");
+        }
+
+        try {
+            return new ExactCover(names, nPrimary, offsets, columns);
+        } catch (IllegalArgumentException e) {
+            throw new DataFormatException(e.getMessage());
+        }
+    }
+
+    private static int padding(int length)
+    {
+        return (4 - (length & 3)) & 3;
+    }
+
+    /**
+     * Writes a file through a buffer, keeping the offset of each row until
+     * every row has been written.
+     */
+    private static class Output implements AutoCloseable
+    {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final int nColumns;
+        private int[] offsets;
+        private int nRows;
+        private int nOnes;
+
+        private Output(File file, String[] names, int nPrimary) throws FileNotFoundException,
+                IOException
+        {
+            this.file = new RandomAccessFile(file, "rw");
+            this.channel = this.file.getChannel();
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            this.nColumns = names.length;
+            this.offsets = new int[1024];
+
+            try {
+                this.channel.truncate(0);
+
+                // the counts are filled in once every row is written
+                writeHeader(nPrimary);
+                for (String name : names) {
+                    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                    writeInt(bytes.length);
+                    for (int i = 0; i < bytes.length + padding(bytes.length); i++) {
+                        ensureRemaining(1);
+                        this.buffer.put(i < bytes.length ? bytes[i] : 0);
+                    }
+                }
+            } catch (IOException e) {
+                this.file.close();
+                throw e;
+            }
+        }
+
+        private void writeHeader(int nPrimary) throws IOException
+        {
+            writeInt(MAGIC);
+            writeInt(VERSION);
+            writeInt(this.nColumns);
+            writeInt(nPrimary);
+            writeInt(this.nRows);
+            writeInt(this.nOnes);
+        }
+
+        private void writeRow(int[] row) throws IOException
+        {
+            writeRow(row, 0, row.length);
+        }
+
+        /**
+         * Writes the row whose columns are at indices from up to to of the
+         * array.
+         */
+        private void writeRow(int[] columns, int from, int to) throws IOException
+        {
+            if (this.nRows == this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+            }
+            if (this.nOnes + (to - from) < this.nOnes) {
+                throw new IllegalArgumentException("too many 1s for this format");
+            }
+            this.offsets[this.nRows++] = this.nOnes;
+
+            for (int i = from; i < to; i++) {
+                int col = columns[i];
+                if (col < 0 || col >= this.nColumns) {
+                    throw new IllegalArgumentException("invalid column: " + col);
+                }
+                writeInt(col);
+            }
+            this.nOnes += to - from;
+        }
+
+        private void writeInt(int value) throws IOException
+        {
+            ensureRemaining(4);
+            this.buffer.putInt(value);
+        }
+
+        private void ensureRemaining(int n) throws IOException
+        {
+            if (this.buffer.remaining() < n) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException
+        {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+            this.buffer.clear();
+        }
+
+        /**
+         * Writes the offsets and fills in the counts in the header. Until
+         * this is called, the counts do not match the size of the file, so
+         * a file which was not finished cannot be read.
+         */
+        private void finish() throws IOException
+        {
+            for (int r = 0; r < this.nRows; r++) {
+                writeInt(this.offsets[r]);
+            }
+            writeInt(this.nOnes);
+            flush();
+
+            ByteBuffer counts = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            counts.putInt(this.nRows).putInt(this.nOnes).flip();
+            long position = 16;
+            while (counts.hasRemaining()) {
+                position += this.channel.write(counts, position);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.file.close();
+        }
+    }
+}
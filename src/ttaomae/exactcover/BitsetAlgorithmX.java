@@ -0,0 +1,644 @@
+package ttaomae.exactcover;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An Algorithm X solver which stores the matrix as bitmasks of long words
+ * instead of links. For each row, it precomputes the mask of every row which
+ * shares a column with it, so choosing a row removes every conflicting row
+ * with a single AND-NOT over the mask of remaining rows. Each level of the
+ * search keeps its own copy of the masks and of the number of remaining rows
+ * in each column, so nothing needs to be undone when backtracking.
+ *
+ * The conflict masks take rows * rows / 8 bytes, so this is meant for small,
+ * dense problems, such as polyomino puzzles with up to a few thousand rows
+ * and a few hundred columns, where it is faster than following links. See
+ * {@link ExactCoverSolvers#create(ExactCover)} for choosing between this and
+ * DancingLinks.
+ */
+public class BitsetAlgorithmX implements ExactCoverSolver
+{
+    /**
+     * During a parallel search, a task splits off its unexplored branches
+     * once the number of tasks queued by its worker, beyond those likely to
+     * be stolen by idle workers, is no more than this.
+     */
+    private static final int SPLIT_THRESHOLD = 0;
+
+    private final String[] names;
+    /**
+     * The rows in compressed sparse row form, shared with the ExactCover and
+     * never modified.
+     */
+    private final int[] offsets;
+    private final int[] columns;
+    private final int nPrimary;
+    /** The number of words in a mask of rows. */
+    private final int rowWords;
+
+    /** The primary columns of each row. */
+    private final int[][] primary;
+    /** The primary columns of each row, as a mask of columns. */
+    private final long[][] primaryMasks;
+    /** The rows which share a column with each row, including itself. */
+    private final long[][] conflicts;
+    /** The rows which contain each primary column. */
+    private final long[][] columnRows;
+
+    // the state at each level of the search, level 0 is the state after
+    // selecting rows, or after covering the prefix of a task
+    /** The rows which do not conflict with the partial solution. */
+    private long[][] alive;
+    /** The primary columns which are not covered by the partial solution. */
+    private long[][] uncovered;
+    /** The number of alive rows in each primary column. */
+    private int[][] counts;
+    /** The rows of the chosen column which have not been tried yet. */
+    private final long[][] candidates;
+
+    /** The rows selected before searching. */
+    private int[] selected;
+    /** The columns of every selected row. */
+    private BitSet selectedColumns;
+
+    /**
+     * Set once the search should stop. During a parallel search, every task
+     * shares the same flag so that they all stop together.
+     */
+    private AtomicBoolean stopped;
+
+    /**
+     * Constructs a new BitsetAlgorithmX from an ExactCover. Colored rows are
+     * not supported, use DancingLinks instead.
+     *
+     * @param ec
+     */
+    public BitsetAlgorithmX(ExactCover ec)
+    {
+        if (ec.hasColors()) {
+            throw new IllegalArgumentException("BitsetAlgorithmX does not support colors");
+        }
+
+        PhaseEvent event = new PhaseEvent("build bitsets");
+        event.begin();
+
+        this.names = ec.getNames();
+        this.offsets = ec.getOffsetArray();
+        this.columns = ec.getColumnArray();
+        this.nPrimary = ec.getNumPrimaryColumns();
+
+        int nRows = this.offsets.length - 1;
+        this.rowWords = words(nRows);
+
+        // the rows of every column, including secondary columns
+        long[][] rowsOf = new long[this.names.length][this.rowWords];
+        for (int r = 0; r < nRows; r++) {
+            for (int i = this.offsets[r]; i < this.offsets[r + 1]; i++) {
+                rowsOf[this.columns[i]][r >>> 6] |= 1L << r;
+            }
+        }
+        this.columnRows = Arrays.copyOf(rowsOf, this.nPrimary);
+
+        this.primary = new int[nRows][];
+        this.primaryMasks = new long[nRows][words(this.nPrimary)];
+        this.conflicts = new long[nRows][this.rowWords];
+        for (int r = 0; r < nRows; r++) {
+            int start = this.offsets[r];
+            int end = this.offsets[r + 1];
+
+            // columns are sorted, so primary columns come first
+            int primaryEnd = start;
+            while (primaryEnd < end && this.columns[primaryEnd] < this.nPrimary) {
+                primaryEnd++;
+            }
+            this.primary[r] = Arrays.copyOfRange(this.columns, start, primaryEnd);
+
+            for (int j = start; j < end; j++) {
+                int c = this.columns[j];
+                if (c < this.nPrimary) {
+                    this.primaryMasks[r][c >>> 6] |= 1L << c;
+                }
+                long[] conflict = this.conflicts[r];
+                long[] column = rowsOf[c];
+                for (int i = 0; i < this.rowWords; i++) {
+                    conflict[i] |= column[i];
+                }
+            }
+        }
+
+        allocateLevels();
+        this.candidates = new long[this.nPrimary + 1][this.rowWords];
+
+        long[] alive = this.alive[0];
+        for (int r = 0; r < nRows; r++) {
+            alive[r >>> 6] |= 1L << r;
+        }
+        long[] uncovered = this.uncovered[0];
+        for (int c = 0; c < this.nPrimary; c++) {
+            uncovered[c >>> 6] |= 1L << c;
+        }
+        int[] counts = this.counts[0];
+        for (int[] row : this.primary) {
+            for (int c : row) {
+                counts[c]++;
+            }
+        }
+
+        this.selected = new int[0];
+        this.selectedColumns = new BitSet();
+
+        event.rows = nRows;
+        event.columns = this.names.length;
+        event.commit();
+    }
+
+    /**
+     * Constructs a copy of another BitsetAlgorithmX, including any rows
+     * which are currently selected. The copy shares the masks of the matrix
+     * and has its own state for each level of the search.
+     */
+    private BitsetAlgorithmX(BitsetAlgorithmX other)
+    {
+        this.names = other.names;
+        this.offsets = other.offsets;
+        this.columns = other.columns;
+        this.nPrimary = other.nPrimary;
+        this.rowWords = other.rowWords;
+        this.primary = other.primary;
+        this.primaryMasks = other.primaryMasks;
+        this.conflicts = other.conflicts;
+        this.columnRows = other.columnRows;
+
+        allocateLevels();
+        this.candidates = new long[this.nPrimary + 1][this.rowWords];
+        this.alive[0] = other.alive[0].clone();
+        this.uncovered[0] = other.uncovered[0].clone();
+        this.counts[0] = other.counts[0].clone();
+
+        this.selected = other.selected;
+        this.selectedColumns = other.selectedColumns;
+    }
+
+    /**
+     * Allocates the state of each level. Every row of a solution covers at
+     * least one primary column, so there are at most nPrimary + 1 levels,
+     * and covering a row of level 0 needs level 1 even if there are none.
+     */
+    private void allocateLevels()
+    {
+        int nLevels = Math.max(this.nPrimary + 1, 2);
+        this.alive = new long[nLevels][this.rowWords];
+        this.uncovered = new long[nLevels][words(this.nPrimary)];
+        this.counts = new int[nLevels][this.nPrimary];
+    }
+
+    private static int words(int bits)
+    {
+        return (bits + 63) >>> 6;
+    }
+
+    @Override
+    public List<Solution> getSolutions()
+    {
+        SolutionCollector collector = new SolutionCollector();
+        solve(collector);
+        return collector.getSolutions();
+    }
+
+    @Override
+    public List<Solution> getSolutions(int nThreads, int depth)
+    {
+        SolutionCollector collector = new SolutionCollector();
+        solve(collector, nThreads, depth);
+        return collector.getSolutions();
+    }
+
+    @Override
+    public void solve(SolutionVisitor visitor)
+    {
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor must not be null");
+        }
+
+        SearchEvent event = new SearchEvent();
+        event.begin();
+
+        this.stopped = new AtomicBoolean(false);
+        long count = search(0, null, visitor, new int[this.nPrimary]);
+
+        event.commit(1, 0, count);
+    }
+
+    @Override
+    public void solve(SolutionVisitor visitor, int nThreads, int depth)
+    {
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor must not be null");
+        }
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("nThreads must be positive");
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must be non-negative");
+        }
+
+        if (nThreads == 1) {
+            solve(visitor);
+            return;
+        }
+
+        parallelSearch(visitor, nThreads, depth);
+    }
+
+    @Override
+    public long countSolutions()
+    {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+
+        this.stopped = new AtomicBoolean(false);
+        long count = search(0, null, null, new int[this.nPrimary]);
+
+        event.commit(1, 0, count);
+        return count;
+    }
+
+    @Override
+    public long countSolutions(int nThreads, int depth)
+    {
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("nThreads must be positive");
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must be non-negative");
+        }
+
+        if (nThreads == 1) {
+            return countSolutions();
+        }
+
+        return parallelSearch(null, nThreads, depth);
+    }
+
+    @Override
+    public void selectRows(Collection<BitSet> rows)
+    {
+        if (rows == null) {
+            throw new IllegalArgumentException("rows must not be null");
+        }
+
+        // find every row before covering any, so that nothing is covered if
+        // one of the rows is invalid
+        int[] selection = new int[rows.size()];
+        BitSet used = new BitSet();
+        int i = 0;
+        for (BitSet r : rows) {
+            if (r == null || r.isEmpty()) {
+                throw new IllegalArgumentException("rows must not be null or empty");
+            }
+            if (r.intersects(used) || r.intersects(this.selectedColumns)) {
+                throw new IllegalArgumentException("selected rows must not share a column");
+            }
+            used.or(r);
+
+            selection[i++] = findRow(r);
+        }
+        used.or(this.selectedColumns);
+
+        int[] newSelected = Arrays.copyOf(this.selected, this.selected.length + selection.length);
+        for (int j = 0; j < selection.length; j++) {
+            coverRow(selection[j]);
+            newSelected[this.selected.length + j] = selection[j];
+        }
+        this.selected = newSelected;
+        this.selectedColumns = used;
+    }
+
+    /**
+     * Returns the index of the row with exactly the specified columns.
+     */
+    private int findRow(BitSet r)
+    {
+        if (r.length() > this.names.length) {
+            throw new IllegalArgumentException("a row cannot be longer than names");
+        }
+
+        int[] rowColumns = ExactCover.toColumnArray(r);
+        for (int i = 0; i < this.offsets.length - 1; i++) {
+            if (Arrays.equals(this.columns, this.offsets[i], this.offsets[i + 1],
+                    rowColumns, 0, rowColumns.length)) {
+                return i;
+            }
+        }
+
+        throw new IllegalArgumentException("row is not in the exact cover: " + r);
+    }
+
+    /**
+     * Searches with a fork/join pool of the specified size. The search starts
+     * as a single task and each task splits off its unexplored branches
+     * whenever there are idle workers to steal them.
+     */
+    private long parallelSearch(SolutionVisitor visitor, int nThreads, int depth)
+    {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+
+        long count;
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            count = pool.invoke(new SearchTask(new int[0], visitor, depth,
+                    new AtomicBoolean(false)));
+        } finally {
+            pool.shutdown();
+        }
+
+        event.commit(nThreads, depth, count);
+        return count;
+    }
+
+    /**
+     * Searches for solutions, passing each one to the visitor. If the visitor
+     * is null, solutions are only counted and nothing is allocated for them.
+     * If task is not null, this search is part of a parallel search and may
+     * give some of its branches to other tasks.
+     *
+     * @return the number of solutions found
+     */
+    private long search(int k, SearchTask task, SolutionVisitor visitor, int[] partialSolution)
+    {
+        if (this.stopped.get()) {
+            return 0;
+        }
+
+        // pick the uncovered column with the fewest alive rows
+        long[] uncovered = this.uncovered[k];
+        int[] counts = this.counts[k];
+        int minColumn = -1;
+        int minSize = Integer.MAX_VALUE;
+        for (int i = 0; i < uncovered.length && minSize > 0; i++) {
+            for (long word = uncovered[i]; word != 0; word &= word - 1) {
+                int c = (i << 6) + Long.numberOfTrailingZeros(word);
+                if (counts[c] < minSize) {
+                    minColumn = c;
+                    minSize = counts[c];
+                    if (minSize == 0) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        // no columns left -> found solution
+        if (minColumn == -1) {
+            if (visitor != null) {
+                int[] prefix = (task == null) ? new int[0] : task.prefix;
+                if (!visitor.visit(toSolution(partialSolution, k, prefix))) {
+                    this.stopped.set(true);
+                }
+            }
+            return 1;
+        }
+        if (minSize == 0) {
+            return 0;
+        }
+
+        long[] candidates = this.candidates[k];
+        long[] alive = this.alive[k];
+        long[] column = this.columnRows[minColumn];
+        for (int i = 0; i < this.rowWords; i++) {
+            candidates[i] = alive[i] & column[i];
+        }
+
+        // try each alive row of the column, candidates are read again after
+        // each row since a split may give away the rest of them
+        long count = 0;
+        for (int i = 0; i < this.rowWords && !this.stopped.get(); i++) {
+            while (candidates[i] != 0 && !this.stopped.get()) {
+                long word = candidates[i];
+                int r = (i << 6) + Long.numberOfTrailingZeros(word);
+                candidates[i] = word & (word - 1);
+                partialSolution[k] = r;
+
+                if (task != null) {
+                    task.trySplit(this, k, partialSolution);
+                }
+
+                choose(k, r);
+                count += search(k + 1, task, visitor, partialSolution);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Sets the state of level k + 1 to the state of level k with row r added
+     * to the partial solution.
+     */
+    private void choose(int k, int r)
+    {
+        long[] alive = this.alive[k];
+        long[] nextAlive = this.alive[k + 1];
+        int[] nextCounts = this.counts[k + 1];
+        long[] conflict = this.conflicts[r];
+        System.arraycopy(this.counts[k], 0, nextCounts, 0, this.nPrimary);
+
+        for (int i = 0; i < this.rowWords; i++) {
+            long removed = alive[i] & conflict[i];
+            nextAlive[i] = alive[i] & ~conflict[i];
+
+            for (; removed != 0; removed &= removed - 1) {
+                int x = (i << 6) + Long.numberOfTrailingZeros(removed);
+                for (int c : this.primary[x]) {
+                    nextCounts[c]--;
+                }
+            }
+        }
+
+        long[] uncovered = this.uncovered[k];
+        long[] nextUncovered = this.uncovered[k + 1];
+        long[] mask = this.primaryMasks[r];
+        for (int i = 0; i < uncovered.length; i++) {
+            nextUncovered[i] = uncovered[i] & ~mask[i];
+        }
+    }
+
+    /**
+     * Adds row r to the state of level 0, such as for a selected row or a
+     * row of the prefix of a task.
+     */
+    private void coverRow(int r)
+    {
+        choose(0, r);
+
+        long[] alive = this.alive[0];
+        this.alive[0] = this.alive[1];
+        this.alive[1] = alive;
+        long[] uncovered = this.uncovered[0];
+        this.uncovered[0] = this.uncovered[1];
+        this.uncovered[1] = uncovered;
+        int[] counts = this.counts[0];
+        this.counts[0] = this.counts[1];
+        this.counts[1] = counts;
+    }
+
+    /**
+     * Creates a Solution from the first k rows of partialSolution, the rows
+     * of the prefix and the selected rows.
+     */
+    private Solution toSolution(int[] partialSolution, int k, int[] prefix)
+    {
+        List<int[]> result = new ArrayList<>();
+        for (int i = 0; i < k; i++) {
+            result.add(getRow(partialSolution[i]));
+        }
+        for (int r : prefix) {
+            result.add(getRow(r));
+        }
+        for (int r : this.selected) {
+            result.add(getRow(r));
+        }
+        return new Solution(this.names, result);
+    }
+
+    /**
+     * Returns the ascending columns of row r.
+     */
+    private int[] getRow(int r)
+    {
+        return Arrays.copyOfRange(this.columns, this.offsets[r], this.offsets[r + 1]);
+    }
+
+    /**
+     * Searches the subtree below a partial solution. Each task searches its
+     * own copy of the state, and gives its unexplored branches to new tasks
+     * when other workers are idle.
+     */
+    private class SearchTask extends RecursiveTask<Long>
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** The rows of the partial solution. */
+        private final int[] prefix;
+        private final SolutionVisitor visitor;
+        private final int depth;
+        private final AtomicBoolean stopped;
+        private final List<SearchTask> subtasks;
+
+        private SearchTask(int[] prefix, SolutionVisitor visitor, int depth,
+                           AtomicBoolean stopped)
+        {
+            this.prefix = prefix;
+            this.visitor = visitor;
+            this.depth = depth;
+            this.stopped = stopped;
+            this.subtasks = new ArrayList<>();
+        }
+
+        @Override
+        protected Long compute()
+        {
+            if (this.stopped.get()) {
+                return 0L;
+            }
+
+            SearchTaskEvent event = new SearchTaskEvent();
+            event.begin();
+
+            BitsetAlgorithmX solver = new BitsetAlgorithmX(BitsetAlgorithmX.this);
+            for (int r : this.prefix) {
+                solver.coverRow(r);
+            }
+            solver.stopped = this.stopped;
+
+            long count = solver.search(0, this, this.visitor, new int[solver.nPrimary]);
+
+            // commit before joining, so the event only covers this task's
+            // own work
+            if (event.shouldCommit()) {
+                event.prefixSize = this.prefix.length;
+                event.depth = this.depth;
+                event.solutions = count;
+                event.subtasks = this.subtasks.size();
+                event.commit();
+            }
+
+            // join in reverse order so that tasks which were not stolen are
+            // taken straight from the top of this worker's queue
+            for (int i = this.subtasks.size() - 1; i >= 0; i--) {
+                count += this.subtasks.get(i).join();
+            }
+
+            return count;
+        }
+
+        /**
+         * Gives the untried rows at the shallowest level of the current
+         * partial solution to new tasks, if other workers are likely to be
+         * idle. The shallowest branches are the most likely to have large
+         * subtrees.
+         *
+         * @param solver the copy being searched by this task
+         */
+        private void trySplit(BitsetAlgorithmX solver, int k, int[] partialSolution)
+        {
+            if (getSurplusQueuedTaskCount() > SPLIT_THRESHOLD) {
+                return;
+            }
+
+            for (int i = 0; i <= k; i++) {
+                if (this.depth != 0 && this.prefix.length + i >= this.depth) {
+                    return;
+                }
+
+                long[] candidates = solver.candidates[i];
+                boolean empty = true;
+                for (long word : candidates) {
+                    if (word != 0) {
+                        empty = false;
+                        break;
+                    }
+                }
+                if (empty) {
+                    continue;
+                }
+
+                SplitEvent event = new SplitEvent();
+                event.begin();
+                int nSubtasks = this.subtasks.size();
+
+                // row indices are the same in every copy, so the siblings can
+                // be covered in a copy of the original state
+                for (int j = 0; j < candidates.length; j++) {
+                    for (long word = candidates[j]; word != 0; word &= word - 1) {
+                        int sibling = (j << 6) + Long.numberOfTrailingZeros(word);
+                        int[] newPrefix = Arrays.copyOf(this.prefix, this.prefix.length + i + 1);
+                        System.arraycopy(partialSolution, 0, newPrefix, this.prefix.length, i);
+                        newPrefix[newPrefix.length - 1] = sibling;
+
+                        SearchTask task = new SearchTask(newPrefix, this.visitor,
+                                this.depth, this.stopped);
+                        task.fork();
+                        this.subtasks.add(task);
+                    }
+                    candidates[j] = 0;
+                }
+
+                if (event.shouldCommit()) {
+                    event.prefixSize = this.prefix.length + i + 1;
+                    event.tasks = this.subtasks.size() - nSubtasks;
+                    event.commit();
+                }
+                return;
+            }
+        }
+    }
+}
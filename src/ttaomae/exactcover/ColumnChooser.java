@@ -0,0 +1,72 @@
+package ttaomae.exactcover;
+
+/**
+ * Chooses the column to branch on at each node of a DancingLinks search.
+ * The chooser is told whenever a primary column is covered or uncovered and
+ * whenever the size of a primary column changes, so that it can keep its
+ * own index of the columns instead of scanning them for each choice.
+ *
+ * Updates are always undone in exactly the reverse order, and sizes only go
+ * down from their initial values and back. The choice may depend on the
+ * order of the updates, but the same updates since initialization must
+ * always lead to the same choice. Parallel tasks and searches resumed from
+ * a checkpoint cover the rows leading to their part of the search in the
+ * same order as the search which reached them, and must make the same
+ * choices below them. A checkpoint records the name of the chooser which
+ * wrote it, and is only resumed with a chooser of the same name.
+ */
+public interface ColumnChooser
+{
+    /**
+     * Called once before any method other than copy(), with the current
+     * state of the solver.
+     *
+     * @param names the name of every column
+     * @param sizes the number of rows in every column
+     * @param degrees the number of 1s in other columns of the rows of every
+     *            column
+     * @param uncovered the primary columns which are not covered, in order
+     */
+    void initialize(String[] names, int[] sizes, int[] degrees, int[] uncovered);
+
+    /**
+     * Called when a primary column is covered.
+     */
+    void covered(int column);
+
+    /**
+     * Called when a primary column is uncovered.
+     */
+    void uncovered(int column);
+
+    /**
+     * Called when the size of a primary column changes, whether or not it is
+     * covered.
+     */
+    void sizeChanged(int column, int size);
+
+    /**
+     * Returns the uncovered primary column to branch on. This is only called
+     * while there is at least one.
+     */
+    int choose();
+
+    /**
+     * Returns an independent copy of this chooser, including its state. Each
+     * copy of the solver used by a parallel search has its own copy.
+     *
+     * The chooser given to a solver is copied before it is initialized, and
+     * only the copy is initialized, so this must also work on a chooser
+     * which has not been initialized. Such a copy has the same settings and
+     * no state.
+     */
+    ColumnChooser copy();
+
+    /**
+     * Returns a name for the way this chooser chooses, which is written to
+     * checkpoints so that a search is only resumed with a chooser which
+     * makes the same choices. Choosers which may choose differently must
+     * have different names.
+     */
+    String getName();
+}
@@ -0,0 +1,661 @@
+package ttaomae.exactcover;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An Algorithm X solver which stores the matrix as sparse sets, using the
+ * dancing cells layout described by Knuth. Every 1 in the matrix is a cell,
+ * and the cells of each column are kept in a contiguous block of an array
+ * with the cells of active rows first, followed by the cells of rows which
+ * were removed. Removing a row from a column swaps its cell to the end of
+ * the active part and decrements the size of the column, and restoring it
+ * only increments the size again, so backtracking writes nothing but sizes.
+ * The uncovered primary columns are kept in a sparse set in the same way.
+ *
+ * At every node of the search, the same column is chosen as by
+ * DancingLinks, the one with the fewest rows and the lowest index among
+ * ties, so both engines visit the same nodes and find the same solutions.
+ * Removed cells are not put back in their original positions, though, so
+ * the rows of a column may be tried, and solutions found, in a different
+ * order.
+ */
+public class DancingCells implements ExactCoverSolver
+{
+    /**
+     * During a parallel search, a task splits off its unexplored branches
+     * once the number of tasks queued by its worker, beyond those likely to
+     * be stolen by idle workers, is no more than this.
+     */
+    private static final int SPLIT_THRESHOLD = 0;
+
+    private final String[] names;
+    private final int nPrimary;
+    /** The number of rows. */
+    private final int nRows;
+
+    /**
+     * The first cell of each row, with one extra entry for the end. This and
+     * the column of each cell are the arrays of the ExactCover, which are
+     * already in this layout, and are never modified.
+     */
+    private final int[] rowStart;
+    /** The column of each cell. */
+    private final int[] column;
+    /** The row of each cell. */
+    private final int[] row;
+    /** The first position of the block of each column in set. */
+    private final int[] setStart;
+
+    /** The cells of each column, with the cells of active rows first. */
+    private final int[] set;
+    /** The position of each cell in set. */
+    private final int[] location;
+    /** The number of active rows in each column. */
+    private final int[] size;
+
+    /** The primary columns, with the uncovered columns first. */
+    private final int[] items;
+    /** The position of each primary column in items. */
+    private final int[] itemLocation;
+    /** The number of uncovered primary columns. */
+    private int active;
+    /** Whether each column is covered by the partial solution. */
+    private final boolean[] covered;
+
+    /**
+     * The column of each cell removed from a column, in the order they were
+     * removed, so that the sizes can be restored in reverse. Each cell is
+     * removed at most once along any path of the search.
+     */
+    private final int[] trail;
+    private int trailSize;
+
+    /** The rows selected before searching. */
+    private int[] selected;
+    /** The columns of every selected row. */
+    private BitSet selectedColumns;
+
+    /**
+     * Set once the search should stop. During a parallel search, every task
+     * shares the same flag so that they all stop together.
+     */
+    private AtomicBoolean stopped;
+
+    /**
+     * Constructs a new DancingCells from an ExactCover. Colored rows are not
+     * supported, use DancingLinks instead.
+     *
+     * @param ec
+     */
+    public DancingCells(ExactCover ec)
+    {
+        if (ec.hasColors()) {
+            throw new IllegalArgumentException("DancingCells does not support colors");
+        }
+
+        PhaseEvent event = new PhaseEvent("build cells");
+        event.begin();
+
+        this.names = ec.getNames();
+        this.nPrimary = ec.getNumPrimaryColumns();
+        this.nRows = ec.getNumRows();
+        this.rowStart = ec.getOffsetArray();
+        this.column = ec.getColumnArray();
+
+        int nColumns = this.names.length;
+        int nCells = this.rowStart[this.nRows];
+
+        this.row = new int[nCells];
+        this.setStart = new int[nColumns];
+        this.set = new int[nCells];
+        this.location = new int[nCells];
+        this.size = new int[nColumns];
+
+        for (int r = 0; r < this.nRows; r++) {
+            for (int cell = this.rowStart[r]; cell < this.rowStart[r + 1]; cell++) {
+                this.row[cell] = r;
+                this.size[this.column[cell]]++;
+            }
+        }
+
+        // lay out the block of each column, with its cells in row order
+        for (int c = 1; c < nColumns; c++) {
+            this.setStart[c] = this.setStart[c - 1] + this.size[c - 1];
+        }
+        int[] filled = new int[nColumns];
+        for (int cell = 0; cell < nCells; cell++) {
+            int c = this.column[cell];
+            int position = this.setStart[c] + filled[c]++;
+            this.set[position] = cell;
+            this.location[cell] = position;
+        }
+
+        this.items = new int[this.nPrimary];
+        this.itemLocation = new int[this.nPrimary];
+        for (int c = 0; c < this.nPrimary; c++) {
+            this.items[c] = c;
+            this.itemLocation[c] = c;
+        }
+        this.active = this.nPrimary;
+        this.covered = new boolean[nColumns];
+
+        this.trail = new int[nCells];
+
+        this.selected = new int[0];
+        this.selectedColumns = new BitSet();
+
+        event.rows = this.nRows;
+        event.columns = nColumns;
+        event.commit();
+    }
+
+    /**
+     * Constructs a copy of another DancingCells, including any rows which are
+     * currently chosen.
+     */
+    private DancingCells(DancingCells other)
+    {
+        this.names = other.names;
+        this.nPrimary = other.nPrimary;
+        this.nRows = other.nRows;
+        this.rowStart = other.rowStart;
+        this.column = other.column;
+        this.row = other.row;
+        this.setStart = other.setStart;
+
+        this.set = other.set.clone();
+        this.location = other.location.clone();
+        this.size = other.size.clone();
+        this.items = other.items.clone();
+        this.itemLocation = other.itemLocation.clone();
+        this.active = other.active;
+        this.covered = other.covered.clone();
+        this.trail = new int[other.trail.length];
+
+        this.selected = other.selected;
+        this.selectedColumns = other.selectedColumns;
+    }
+
+    @Override
+    public List<Solution> getSolutions()
+    {
+        SolutionCollector collector = new SolutionCollector();
+        solve(collector);
+        return collector.getSolutions();
+    }
+
+    @Override
+    public List<Solution> getSolutions(int nThreads, int depth)
+    {
+        SolutionCollector collector = new SolutionCollector();
+        solve(collector, nThreads, depth);
+        return collector.getSolutions();
+    }
+
+    @Override
+    public void solve(SolutionVisitor visitor)
+    {
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor must not be null");
+        }
+
+        SearchEvent event = new SearchEvent();
+        event.begin();
+
+        this.stopped = new AtomicBoolean(false);
+        long count = search(0, null, visitor, new int[this.nPrimary]);
+
+        event.commit(1, 0, count);
+    }
+
+    @Override
+    public void solve(SolutionVisitor visitor, int nThreads, int depth)
+    {
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor must not be null");
+        }
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("nThreads must be positive");
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must be non-negative");
+        }
+
+        if (nThreads == 1) {
+            solve(visitor);
+            return;
+        }
+
+        parallelSearch(visitor, nThreads, depth);
+    }
+
+    @Override
+    public long countSolutions()
+    {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+
+        this.stopped = new AtomicBoolean(false);
+        long count = search(0, null, null, new int[this.nPrimary]);
+
+        event.commit(1, 0, count);
+        return count;
+    }
+
+    @Override
+    public long countSolutions(int nThreads, int depth)
+    {
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("nThreads must be positive");
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must be non-negative");
+        }
+
+        if (nThreads == 1) {
+            return countSolutions();
+        }
+
+        return parallelSearch(null, nThreads, depth);
+    }
+
+    @Override
+    public void selectRows(Collection<BitSet> rows)
+    {
+        if (rows == null) {
+            throw new IllegalArgumentException("rows must not be null");
+        }
+
+        // find every row before choosing any, so that nothing is chosen if
+        // one of the rows is invalid
+        int[] selection = new int[rows.size()];
+        BitSet used = new BitSet();
+        int i = 0;
+        for (BitSet r : rows) {
+            if (r == null || r.isEmpty()) {
+                throw new IllegalArgumentException("rows must not be null or empty");
+            }
+            if (r.intersects(used) || r.intersects(this.selectedColumns)) {
+                throw new IllegalArgumentException("selected rows must not share a column");
+            }
+            used.or(r);
+
+            selection[i++] = findRow(r);
+        }
+        used.or(this.selectedColumns);
+
+        int[] newSelected = Arrays.copyOf(this.selected, this.selected.length + selection.length);
+        for (int j = 0; j < selection.length; j++) {
+            coverRow(selection[j]);
+            newSelected[this.selected.length + j] = selection[j];
+        }
+        this.selected = newSelected;
+        this.selectedColumns = used;
+    }
+
+    /**
+     * Returns the row with exactly the specified columns.
+     */
+    private int findRow(BitSet r)
+    {
+        if (r.length() > this.names.length) {
+            throw new IllegalArgumentException("a row cannot be longer than names");
+        }
+
+        int[] rowColumns = ExactCover.toColumnArray(r);
+        for (int i = 0; i < this.nRows; i++) {
+            if (Arrays.equals(getRow(i), rowColumns)) {
+                return i;
+            }
+        }
+
+        throw new IllegalArgumentException("row is not in the exact cover: " + r);
+    }
+
+    /**
+     * Searches with a fork/join pool of the specified size. The search starts
+     * as a single task and each task splits off its unexplored branches
+     * whenever there are idle workers to steal them.
+     */
+    private long parallelSearch(SolutionVisitor visitor, int nThreads, int depth)
+    {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+
+        long count;
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            count = pool.invoke(new SearchTask(new int[0], visitor, depth,
+                    new AtomicBoolean(false)));
+        } finally {
+            pool.shutdown();
+        }
+
+        event.commit(nThreads, depth, count);
+        return count;
+    }
+
+    /**
+     * Searches for solutions, passing each one to the visitor. If the visitor
+     * is null, solutions are only counted and nothing is allocated for them.
+     * If task is not null, this search is part of a parallel search and may
+     * give some of its branches to other tasks.
+     *
+     * @param partialSolution the position in set of the cell of each row of
+     *        the partial solution
+     * @return the number of solutions found
+     */
+    private long search(int k, SearchTask task, SolutionVisitor visitor, int[] partialSolution)
+    {
+        if (this.stopped.get()) {
+            return 0;
+        }
+
+        // no columns left -> found solution
+        if (this.active == 0) {
+            if (visitor != null) {
+                int[] prefix = (task == null) ? new int[0] : task.prefix;
+                if (!visitor.visit(toSolution(partialSolution, k, prefix))) {
+                    this.stopped.set(true);
+                }
+            }
+            return 1;
+        }
+
+        // pick the column with the fewest active rows, breaking ties by the
+        // first column as DancingLinks does, since the order of the
+        // uncovered columns changes as they are covered and uncovered
+        int c = this.items[0];
+        for (int i = 1; i < this.active && this.size[c] > 0; i++) {
+            int item = this.items[i];
+            if (this.size[item] < this.size[c]
+                    || (this.size[item] == this.size[c] && item < c)) {
+                c = item;
+            }
+        }
+
+        // once c is covered its block does not change until it is uncovered
+        int trailStart = this.trailSize;
+        cover(c);
+
+        long count = 0;
+        int end = this.setStart[c] + this.size[c];
+        if (task != null) {
+            task.ends[k] = end;
+        }
+        for (int p = this.setStart[c]; p < end && !this.stopped.get(); p++) {
+            partialSolution[k] = p;
+
+            if (task != null) {
+                task.trySplit(this, k, partialSolution);
+            }
+
+            // go across the row and cover each other column
+            int x = this.set[p];
+            int r = this.row[x];
+            int rowStart = this.trailSize;
+            for (int y = this.rowStart[r]; y < this.rowStart[r + 1]; y++) {
+                if (y != x) {
+                    cover(this.column[y]);
+                }
+            }
+
+            count += search(k + 1, task, visitor, partialSolution);
+
+            restore(rowStart);
+            for (int y = this.rowStart[r]; y < this.rowStart[r + 1]; y++) {
+                if (y != x) {
+                    reactivate(this.column[y]);
+                }
+            }
+
+            // the rest of the rows may have been given to other tasks
+            if (task != null) {
+                end = task.ends[k];
+            }
+        }
+
+        restore(trailStart);
+        reactivate(c);
+
+        return count;
+    }
+
+    /**
+     * Covers column c and removes each of its rows from every other
+     * uncovered column. The block of c itself is left as it is, so that its
+     * rows can be tried.
+     */
+    private void cover(int c)
+    {
+        this.covered[c] = true;
+        if (c < this.nPrimary) {
+            // swap c to the end of the uncovered columns
+            int p = this.itemLocation[c];
+            int end = --this.active;
+            int other = this.items[end];
+            this.items[p] = other;
+            this.itemLocation[other] = p;
+            this.items[end] = c;
+            this.itemLocation[c] = end;
+        }
+
+        int[] set = this.set;
+        int[] location = this.location;
+        int[] size = this.size;
+        int[] setStart = this.setStart;
+        int end = setStart[c] + size[c];
+        for (int p = setStart[c]; p < end; p++) {
+            int r = this.row[set[p]];
+            for (int y = this.rowStart[r], last = this.rowStart[r + 1]; y < last; y++) {
+                int other = this.column[y];
+                if (!this.covered[other]) {
+                    // swap y to the end of the active cells of its column
+                    int q = location[y];
+                    int e = setStart[other] + --size[other];
+                    int z = set[e];
+                    set[q] = z;
+                    location[z] = q;
+                    set[e] = y;
+                    location[y] = e;
+                    this.trail[this.trailSize++] = other;
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores the sizes which were decremented since the trail had the
+     * specified size. The removed cells were left just past the end of the
+     * active cells of their columns, so this puts them back.
+     */
+    private void restore(int trailSize)
+    {
+        while (this.trailSize > trailSize) {
+            this.size[this.trail[--this.trailSize]]++;
+        }
+    }
+
+    /**
+     * Marks column c as uncovered again, once the sizes changed by covering
+     * it are restored. Columns must be reactivated in the reverse order they
+     * were covered, or in any order if they were covered together.
+     */
+    private void reactivate(int c)
+    {
+        this.covered[c] = false;
+        if (c < this.nPrimary) {
+            this.active++;
+        }
+    }
+
+    /**
+     * Covers every column of row r, without ever uncovering them, such as for
+     * a selected row or a row of the prefix of a task.
+     */
+    private void coverRow(int r)
+    {
+        for (int x = this.rowStart[r]; x < this.rowStart[r + 1]; x++) {
+            cover(this.column[x]);
+        }
+        this.trailSize = 0;
+    }
+
+    /**
+     * Creates a Solution from the first k rows of partialSolution, the rows
+     * of the prefix and the selected rows.
+     */
+    private Solution toSolution(int[] partialSolution, int k, int[] prefix)
+    {
+        List<int[]> result = new ArrayList<>();
+        for (int i = 0; i < k; i++) {
+            result.add(getRow(this.row[this.set[partialSolution[i]]]));
+        }
+        for (int r : prefix) {
+            result.add(getRow(r));
+        }
+        for (int r : this.selected) {
+            result.add(getRow(r));
+        }
+        return new Solution(this.names, result);
+    }
+
+    /**
+     * Returns the ascending columns of row r.
+     */
+    private int[] getRow(int r)
+    {
+        return Arrays.copyOfRange(this.column, this.rowStart[r], this.rowStart[r + 1]);
+    }
+
+    /**
+     * Searches the subtree below a partial solution. Each task searches its
+     * own copy of the cells, and gives its unexplored branches to new tasks
+     * when other workers are idle.
+     */
+    private class SearchTask extends RecursiveTask<Long>
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** The rows of the partial solution. */
+        private final int[] prefix;
+        private final SolutionVisitor visitor;
+        private final int depth;
+        private final AtomicBoolean stopped;
+        private final List<SearchTask> subtasks;
+        /**
+         * The end of the rows left to try at each level, which is lowered
+         * once they are given to other tasks.
+         */
+        private final int[] ends;
+
+        private SearchTask(int[] prefix, SolutionVisitor visitor, int depth,
+                           AtomicBoolean stopped)
+        {
+            this.prefix = prefix;
+            this.visitor = visitor;
+            this.depth = depth;
+            this.stopped = stopped;
+            this.subtasks = new ArrayList<>();
+            this.ends = new int[DancingCells.this.nPrimary];
+        }
+
+        @Override
+        protected Long compute()
+        {
+            if (this.stopped.get()) {
+                return 0L;
+            }
+
+            SearchTaskEvent event = new SearchTaskEvent();
+            event.begin();
+
+            // copy the cells and choose the rows of the partial solution
+            DancingCells dc = new DancingCells(DancingCells.this);
+            for (int r : this.prefix) {
+                dc.coverRow(r);
+            }
+            dc.stopped = this.stopped;
+
+            long count = dc.search(0, this, this.visitor, new int[dc.nPrimary]);
+
+            // commit before joining, so the event only covers this task's
+            // own work
+            if (event.shouldCommit()) {
+                event.prefixSize = this.prefix.length;
+                event.depth = this.depth;
+                event.solutions = count;
+                event.subtasks = this.subtasks.size();
+                event.commit();
+            }
+
+            // join in reverse order so that tasks which were not stolen are
+            // taken straight from the top of this worker's queue
+            for (int i = this.subtasks.size() - 1; i >= 0; i--) {
+                count += this.subtasks.get(i).join();
+            }
+
+            return count;
+        }
+
+        /**
+         * Gives the untried rows at the shallowest level of the current
+         * partial solution to new tasks, if other workers are likely to be
+         * idle. The shallowest branches are the most likely to have large
+         * subtrees.
+         *
+         * @param dc the copy of the cells being searched by this task
+         */
+        private void trySplit(DancingCells dc, int k, int[] partialSolution)
+        {
+            if (getSurplusQueuedTaskCount() > SPLIT_THRESHOLD) {
+                return;
+            }
+
+            for (int i = 0; i <= k; i++) {
+                if (this.depth != 0 && this.prefix.length + i >= this.depth) {
+                    return;
+                }
+
+                int p = partialSolution[i];
+                if (p + 1 >= this.ends[i]) {
+                    continue;
+                }
+
+                SplitEvent event = new SplitEvent();
+                event.begin();
+                int nSubtasks = this.subtasks.size();
+
+                // row indices are the same in every copy, so the siblings
+                // can be chosen in a copy of the original cells
+                for (int sibling = p + 1; sibling < this.ends[i]; sibling++) {
+                    int[] newPrefix = Arrays.copyOf(this.prefix, this.prefix.length + i + 1);
+                    for (int j = 0; j < i; j++) {
+                        newPrefix[this.prefix.length + j] = dc.row[dc.set[partialSolution[j]]];
+                    }
+                    newPrefix[newPrefix.length - 1] = dc.row[dc.set[sibling]];
+
+                    SearchTask task = new SearchTask(newPrefix, this.visitor,
+                            this.depth, this.stopped);
+                    task.fork();
+                    this.subtasks.add(task);
+                }
+                this.ends[i] = p + 1;
+
+                if (event.shouldCommit()) {
+                    event.prefixSize = this.prefix.length + i + 1;
+                    event.tasks = this.subtasks.size() - nSubtasks;
+                    event.commit();
+                }
+                return;
+            }
+        }
+    }
+}
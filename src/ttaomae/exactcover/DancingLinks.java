@@ -1,24 +1,130 @@
 package ttaomae.exactcover;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-
-public class DancingLinks
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class DancingLinks implements ExactCoverSolver
 {
-    private ColumnNode header;
     /**
-     * A copy of the ExactCover so that it is possible to create a duplicate
-     * DancingLinks.
+     * During a parallel search, a task splits off its unexplored branches
+     * once the number of tasks queued by its worker, beyond those likely to
+     * be stolen by idle workers, is no more than this.
      */
-    private ExactCover ec;
+    private static final int SPLIT_THRESHOLD = 0;
+
+    /**
+     * Ignores every update, so that columns without a chooser to tell can
+     * be updated the same way as those with one.
+     */
+    private static final ColumnChooser NO_CHOOSER = new ColumnChooser() {
+        @Override
+        public void initialize(String[] names, int[] sizes, int[] degrees, int[] uncovered)
+        {
+        }
+
+        @Override
+        public void covered(int column)
+        {
+        }
+
+        @Override
+        public void uncovered(int column)
+        {
+        }
+
+        @Override
+        public void sizeChanged(int column, int size)
+        {
+        }
+
+        @Override
+        public int choose()
+        {
+            throw new IllegalStateException("no column chooser");
+        }
+
+        @Override
+        public ColumnChooser copy()
+        {
+            return this;
+        }
+
+        @Override
+        public String getName()
+        {
+            return "fewest rows";
+        }
+    };
+
+    ColumnNode header;
+    private String[] names;
+    private int nPrimary;
+    /**
+     * The rows in compressed sparse row form, shared with the ExactCover and
+     * never modified. The columns of the row numbered r in each node are at
+     * indices rowOffsets[r] up to rowOffsets[r + 1] of rowColumns.
+     */
+    private int[] rowOffsets;
+    private int[] rowColumns;
+    /**
+     * The colors of each row, in the same order as the columns of the row, or
+     * null if the rows do not have colors.
+     */
+    private int[][] colors;
+    /**
+     * Every node, including the header and column headers, indexed by the
+     * index stored in each node. This makes it possible to copy the links in
+     * a single pass and to refer to the same node in different copies.
+     */
+    private Node[] nodes;
+    /** The header of each column, indexed by the column's id. */
+    private ColumnNode[] columns;
+    /** The indices of the first node of each row selected before searching. */
+    private int[] selected;
+    /** The columns of every selected row. */
+    private BitSet selectedColumns;
+    /**
+     * Set once the search should stop. During a parallel search, every task
+     * shares the same flag so that they all stop together.
+     */
+    private AtomicBoolean stopped;
+    /**
+     * A bit for each column, set while the column is uncovered. Together
+     * with the rows, this determines the rest of the search.
+     */
+    long[] activeColumns;
+    /** Collects the counters of every thread, or null if disabled. */
+    private MetricsRecorder metrics;
+    /**
+     * The counters updated by this copy, which ignore every update if
+     * metrics are disabled.
+     */
+    private MetricsRecorder.Counters counters = MetricsRecorder.Counters.NONE;
+    /**
+     * Chooses the column to branch on, or null to scan for the smallest
+     * column.
+     */
+    private ColumnChooser chooser;
+    /**
+     * Runs the searches which write checkpoints or report progress. Copies
+     * made for parallel tasks do not have one.
+     */
+    private MonitoredSearch monitored;
 
     /**
      * Constructs a new DancingLinks from an ExactCover.
@@ -27,42 +133,168 @@ public class DancingLinks
      */
     public DancingLinks(ExactCover ec)
     {
-        this.ec = ec;
-        String[] names = ec.getNames();
-        Set<BitSet> rows = ec.getRows();
+        PhaseEvent event = new PhaseEvent("build links");
+        event.begin();
 
-        this.header = new ColumnNode("header");
+        this.names = ec.getNames();
+        this.rowOffsets = ec.getOffsetArray();
+        this.rowColumns = ec.getColumnArray();
+        this.colors = ec.getRowColors();
+
+        int nRows = this.rowOffsets.length - 1;
+        int nNodes = 1 + this.names.length + this.rowOffsets[nRows];
+        this.nodes = new Node[nNodes];
+
+        this.header = new ColumnNode("header", 0);
         this.header.left = this.header;
         this.header.right = this.header;
+        this.header.up = this.header;
+        this.header.down = this.header;
+        this.nodes[0] = this.header;
 
         // create column headers
+        // secondary columns are not in the header list so they are never
+        // chosen, and the search ends once every primary column is covered
+        int nPrimary = ec.getNumPrimaryColumns();
+        this.nPrimary = nPrimary;
+        this.columns = new ColumnNode[this.names.length];
         ColumnNode prev = this.header;
-        for (int col = 0; col < names.length; col++) {
-            ColumnNode newNode = new ColumnNode(names[col]);
+        for (int col = 0; col < this.names.length; col++) {
+            ColumnNode newNode = new ColumnNode(this.names[col], col + 1);
+            this.columns[col] = newNode;
+            this.nodes[col + 1] = newNode;
+
+            if (col < nPrimary) {
+                newNode.left = prev;
+                prev.right = newNode;
+                this.header.left = newNode;
+                newNode.right = this.header;
 
-            newNode.left = prev;
-            prev.right = newNode;
-            this.header.left = newNode;
-            newNode.right = this.header;
+                prev = newNode;
+            }
+            else {
+                newNode.left = newNode;
+                newNode.right = newNode;
+            }
 
             newNode.up = newNode;
             newNode.down = newNode;
+        }
 
-            prev = newNode;
+        int index = 1 + this.names.length;
+        for (int row = 0; row < nRows; row++) {
+            index = addRow(row, index);
         }
 
-        for (BitSet row : rows) {
-            addRow(row);
+        this.selected = new int[0];
+        this.selectedColumns = new BitSet();
+
+        this.activeColumns = new long[(this.names.length + 63) / 64];
+        for (int col = 0; col < this.names.length; col++) {
+            this.activeColumns[col >> 6] |= 1L << col;
+        }
+
+        this.monitored = new MonitoredSearch(this);
+
+        event.rows = nRows;
+        event.columns = this.names.length;
+        event.commit();
+    }
+
+    /**
+     * Constructs a copy of another DancingLinks, including any columns which
+     * are currently covered. The nodes are copied in one pass over the array
+     * of nodes and every link is translated by index, so nothing is rebuilt
+     * from the ExactCover.
+     */
+    private DancingLinks(DancingLinks other)
+    {
+        this.names = other.names;
+        this.nPrimary = other.nPrimary;
+        this.rowOffsets = other.rowOffsets;
+        this.rowColumns = other.rowColumns;
+        this.colors = other.colors;
+        this.nodes = new Node[other.nodes.length];
+
+        for (int i = 0; i < this.nodes.length; i++) {
+            Node n = other.nodes[i];
+            if (n instanceof ColumnNode) {
+                ColumnNode c = new ColumnNode(((ColumnNode) n).name, i);
+                c.size = ((ColumnNode) n).size;
+                this.nodes[i] = c;
+            }
+            else {
+                Node copy = new Node(i);
+                copy.row = n.row;
+                copy.color = n.color;
+                this.nodes[i] = copy;
+            }
+        }
+
+        for (int i = 0; i < this.nodes.length; i++) {
+            Node n = other.nodes[i];
+            Node copy = this.nodes[i];
+            copy.left = this.nodes[n.left.index];
+            copy.right = this.nodes[n.right.index];
+            copy.up = this.nodes[n.up.index];
+            copy.down = this.nodes[n.down.index];
+            copy.column = (ColumnNode) this.nodes[n.column.index];
         }
+
+        this.header = (ColumnNode) this.nodes[0];
+
+        // column headers directly follow the header
+        this.columns = new ColumnNode[other.columns.length];
+        for (int col = 0; col < this.columns.length; col++) {
+            this.columns[col] = (ColumnNode) this.nodes[col + 1];
+        }
+        this.selected = other.selected;
+        this.selectedColumns = other.selectedColumns;
+        this.activeColumns = other.activeColumns.clone();
+        this.metrics = other.metrics;
+        this.chooser = (other.chooser == null) ? null : other.chooser.copy();
+        attachChooser();
     }
 
+    @Override
     public List<Solution> getSolutions()
     {
-        return search(0, 0, new ArrayList<Solution>(), new ArrayList<Node>());
+        SolutionCollector collector = new SolutionCollector();
+        solve(collector);
+        return collector.getSolutions();
     }
 
+    @Override
     public List<Solution> getSolutions(int nThreads, int depth)
     {
+        SolutionCollector collector = new SolutionCollector();
+        solve(collector, nThreads, depth);
+        return collector.getSolutions();
+    }
+
+    @Override
+    public void solve(SolutionVisitor visitor)
+    {
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor must not be null");
+        }
+
+        SearchEvent event = new SearchEvent();
+        event.begin();
+
+        long count = this.monitored.isEnabled()
+                     ? this.monitored.search(visitor, 1, 0)
+                     : sequentialSearch(visitor);
+
+        event.commit(1, 0, count);
+    }
+
+    @Override
+    public void solve(SolutionVisitor visitor, int nThreads, int depth)
+    {
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor must not be null");
+        }
         if (nThreads < 1) {
             throw new IllegalArgumentException("nThreads must be positive");
         }
@@ -71,89 +303,536 @@ public class DancingLinks
         }
 
         if (nThreads == 1) {
-            return getSolutions();
-        }
-
-        // get list of partial solutions up to 'depth'
-        List<Solution> partialSolutions
-            = search(0, depth, new ArrayList<Solution>(), new ArrayList<Node>());
-
-        // create a new thread pool
-        ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
-        List<Future<List<Solution>>> solutions = new ArrayList<>();
-
-        for (final Solution partialSolution : partialSolutions) {
-            // create a Callable for each partial solution
-            Callable<List<Solution>> task = new Callable<List<Solution>>() {
-                @Override
-                public List<Solution> call()
-                {
-                    // create a new DancingLinks with the row/columns of the
-                    // partial solution covered
-                    DancingLinks dl = new DancingLinks(DancingLinks.this.ec);
-                    dl.cover(partialSolution.rows);
-
-                    // get solutions for partially covered DancingLinks
-                    List<Solution> rest = dl.search(0, 0,
-                            new ArrayList<Solution>(), new ArrayList<Node>());
-
-                    List<Solution> result = new ArrayList<>();
-                    for (Solution s : rest) {
-                        // combine the two partial results into a single solution
-                        s.rows.addAll(partialSolution.rows);
-                        result.add(s);
-                    }
+            solve(visitor);
+            return;
+        }
 
-                    return result;
-                }
-            };
+        parallelSearch(visitor, nThreads, depth);
+    }
+
+    @Override
+    public long countSolutions()
+    {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+
+        long count = this.monitored.isEnabled()
+                     ? this.monitored.search(null, 1, 0)
+                     : sequentialSearch(null);
+
+        event.commit(1, 0, count);
+        return count;
+    }
 
-            solutions.add(threadPool.submit(task));
+    @Override
+    public long countSolutions(int nThreads, int depth)
+    {
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("nThreads must be positive");
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must be non-negative");
         }
 
-        // put the results from each task into the final result
-        List<Solution> finalResult = new ArrayList<>();
-        for (Future<List<Solution>> f : solutions) {
-            try {
-                // get the results of each task
-                List<Solution> result = f.get();
-                // add each solution to the final result
-                for (Solution s : result) {
-                    finalResult.add(s);
+        if (nThreads == 1) {
+            return countSolutions();
+        }
+
+        return parallelSearch(null, nThreads, depth);
+    }
+
+    /**
+     * Counts the solutions, remembering the number of solutions below each
+     * node of the search by the set of columns which are still uncovered.
+     * Since that set determines which rows remain, any later node which
+     * reaches the same set reuses the count instead of searching again.
+     * Once the cache holds cacheSize counts, the least recently used count
+     * is evicted.
+     *
+     * @param cacheSize the maximum number of counts to remember
+     * @return the number of solutions
+     * @throws IllegalArgumentException if cacheSize is not positive
+     * @throws IllegalStateException if the rows have colors, since the
+     *         uncovered columns do not determine which rows remain
+     */
+    public long countSolutionsMemoized(int cacheSize)
+    {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("cacheSize must be positive");
+        }
+        if (this.colors != null) {
+            throw new IllegalStateException(
+                    "memoized counting does not support colors");
+        }
+
+        return new MemoizedSearch(this).count(cacheSize);
+    }
+
+    /**
+     * Builds a diagram of every solution. Like
+     * {@link #countSolutionsMemoized(int)}, each node of the search is
+     * identified by the set of uncovered columns, so equal subproblems are
+     * only searched once and share the same part of the diagram.
+     *
+     * @throws IllegalStateException if the rows have colors
+     */
+    public SolutionDiagram buildDiagram()
+    {
+        if (this.colors != null) {
+            throw new IllegalStateException(
+                    "solution diagrams do not support colors");
+        }
+
+        SolutionDiagram.Builder builder = new SolutionDiagram.Builder();
+        int root = new MemoizedSearch(this).buildDiagram(builder);
+
+        int[] fixed = new int[this.selected.length];
+        for (int i = 0; i < fixed.length; i++) {
+            fixed[i] = this.nodes[this.selected[i]].row;
+        }
+        return builder.build(this.names, this.rowOffsets, this.rowColumns, fixed, root);
+    }
+
+    /**
+     * Enables or disables counting nodes, link updates, solutions and the
+     * branching factor at each depth during searches. Each thread updates
+     * its own counters, which are only combined when they are read, so the
+     * parallel search is not slowed down by sharing them. Enabling metrics
+     * starts them from zero.
+     */
+    public void setMetricsEnabled(boolean enabled)
+    {
+        if (enabled) {
+            this.metrics = new MetricsRecorder();
+            this.counters = this.metrics.newCounters();
+        }
+        else {
+            this.metrics = null;
+            this.counters = MetricsRecorder.Counters.NONE;
+        }
+    }
+
+    /**
+     * Returns the metrics of every search since they were enabled or reset.
+     *
+     * @throws IllegalStateException if metrics are not enabled
+     */
+    public SearchMetrics getMetrics()
+    {
+        if (this.metrics == null) {
+            throw new IllegalStateException("metrics are not enabled");
+        }
+        return this.metrics.getMetrics();
+    }
+
+    /**
+     * Returns a view of the metrics which can be registered with an
+     * MBeanServer, and which always reflects the latest counts.
+     *
+     * @throws IllegalStateException if metrics are not enabled
+     */
+    public SearchMetricsMXBean getMetricsMXBean()
+    {
+        if (this.metrics == null) {
+            throw new IllegalStateException("metrics are not enabled");
+        }
+        return this.metrics;
+    }
+
+    /**
+     * Registers the metrics with the platform MBeanServer under the name
+     * ttaomae.exactcover:type=DancingLinks,name=<i>name</i>.
+     *
+     * @throws IllegalStateException if metrics are not enabled
+     */
+    public ObjectName registerMetrics(String name) throws JMException
+    {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+
+        ObjectName objectName = new ObjectName("ttaomae.exactcover:type=DancingLinks,name="
+                + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+                getMetricsMXBean(), objectName);
+        return objectName;
+    }
+
+    /**
+     * Sets the strategy used to choose the column to branch on at each node
+     * of the search, or restores the default of scanning every column for
+     * the one with the fewest rows if chooser is null. The chooser is copied
+     * before it is initialized and starts from the currently selected rows.
+     * The chooser itself is never initialized or updated, so the same
+     * chooser can be given to several solvers.
+     */
+    public void setColumnChooser(ColumnChooser chooser)
+    {
+        if (chooser == null) {
+            this.chooser = null;
+            attachChooser();
+            return;
+        }
+
+        int[] sizes = new int[this.names.length];
+        int[] degrees = new int[this.names.length];
+        for (int col = 0; col < sizes.length; col++) {
+            sizes[col] = this.columns[col].size;
+        }
+        for (int row = 0; row < this.rowOffsets.length - 1; row++) {
+            int start = this.rowOffsets[row];
+            int end = this.rowOffsets[row + 1];
+            for (int i = start; i < end; i++) {
+                degrees[this.rowColumns[i]] += end - start - 1;
+            }
+        }
+
+        List<Integer> uncovered = new ArrayList<>();
+        for (Node c = this.header.right; c != this.header; c = c.right) {
+            uncovered.add(c.index - 1);
+        }
+        int[] uncoveredArray = new int[uncovered.size()];
+        for (int i = 0; i < uncoveredArray.length; i++) {
+            uncoveredArray[i] = uncovered.get(i);
+        }
+
+        ColumnChooser copy = chooser.copy();
+        copy.initialize(this.names.clone(), sizes, degrees, uncoveredArray);
+        this.chooser = copy;
+        attachChooser();
+    }
+
+    /**
+     * Returns the name of the column chooser, or of the default choice if
+     * there is none.
+     */
+    String getChooserName()
+    {
+        return (this.chooser == null) ? NO_CHOOSER.getName() : this.chooser.getName();
+    }
+
+    /**
+     * Makes every primary column tell the chooser about its updates, if
+     * there is one.
+     */
+    private void attachChooser()
+    {
+        ColumnChooser chooser = (this.chooser == null) ? NO_CHOOSER : this.chooser;
+        for (int col = 0; col < this.nPrimary; col++) {
+            this.columns[col].chooser = chooser;
+        }
+    }
+
+    /**
+     * Enables periodic checkpoints of the search, or disables them if file
+     * is null. While searching, the remaining work and the number of
+     * solutions found so far are written to the file every interval
+     * milliseconds. If the file already holds a checkpoint of this problem,
+     * the next search resumes from it instead of starting over. Once a
+     * search finishes, the file is deleted; if the visitor stops it, a
+     * final checkpoint is written instead.
+     *
+     * Solutions passed to the visitor before a checkpoint are not passed to
+     * it again when resuming, but those passed after the last checkpoint
+     * are, so a visitor which saves solutions should be prepared to see
+     * some of them twice. Counts are always exact. Rows must be selected
+     * and the column chooser set before enabling checkpoints, since a
+     * checkpoint is only resumed with the chooser which wrote it.
+     *
+     * @param file the checkpoint file
+     * @param interval the number of milliseconds between checkpoints
+     * @throws DataFormatException if the file is not a checkpoint of this
+     *         problem, or was written with a different column chooser
+     */
+    public void setCheckpoint(File file, long interval) throws IOException,
+            DataFormatException
+    {
+        this.monitored.setCheckpoint(file, interval);
+    }
+
+    /**
+     * Sets a listener which is told the progress of each search every
+     * interval milliseconds, or removes it if listener is null. Progress is
+     * measured as the fraction of the search tree explored, where each node
+     * is divided equally between its branches.
+     */
+    public void setProgressListener(ProgressListener listener, long interval)
+    {
+        this.monitored.setProgressListener(listener, interval);
+    }
+
+    /**
+     * Estimates the size of the search tree by following random paths from
+     * the root, as described by Knuth. At each node, the column is chosen as
+     * in the search and a row of it is chosen at random. The estimates are
+     * unbiased, but their variance can be large for irregular trees.
+     *
+     * @param samples the number of random paths to follow
+     * @param random the source of random rows
+     */
+    public TreeEstimate estimate(int samples, Random random)
+    {
+        if (samples < 1) {
+            throw new IllegalArgumentException("samples must be positive");
+        }
+        if (random == null) {
+            throw new IllegalArgumentException("random must not be null");
+        }
+
+        double nodes = 0;
+        double solutions = 0;
+        List<Node> path = new ArrayList<>();
+        for (int s = 0; s < samples; s++) {
+            // the number of nodes at the current depth if every node had the
+            // same branches as the nodes on this path
+            double width = 1;
+            nodes += width;
+
+            while (true) {
+                if (this.header.right == this.header) {
+                    solutions += width;
+                    break;
                 }
-            } catch (InterruptedException | ExecutionException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+
+                ColumnNode c = minColumn();
+                if (c.size == 0) {
+                    break;
+                }
+
+                Node r = c.down;
+                for (int i = random.nextInt(c.size); i > 0; i--) {
+                    r = r.down;
+                }
+                width *= c.size;
+                nodes += width;
+
+                coverRow(r);
+                path.add(r);
+            }
+
+            // undo the path from the deepest row up
+            for (int i = path.size() - 1; i >= 0; i--) {
+                uncoverRow(path.get(i));
             }
+            path.clear();
         }
 
-        threadPool.shutdown();
+        return new TreeEstimate(nodes / samples, solutions / samples, samples);
+    }
 
-        return finalResult;
+    /**
+     * Reads a length followed by the indices of that many nodes of rows.
+     */
+    int[] readNodes(DataInputStream in) throws IOException,
+            DataFormatException
+    {
+        int length = in.readInt();
+        if (length < 0 || length > this.names.length) {
+            throw new DataFormatException("invalid number of nodes: " + length);
+        }
+
+        int[] nodes = new int[length];
+        for (int i = 0; i < length; i++) {
+            nodes[i] = in.readInt();
+            // must be a node of a row
+            if (nodes[i] <= this.names.length || nodes[i] >= this.nodes.length) {
+                throw new DataFormatException("invalid node: " + nodes[i]);
+            }
+        }
+        return nodes;
     }
 
-    private List<Solution> search(int k, int depth, List<Solution> solutions,
-                                  List<Node> partialSolution)
+    /**
+     * Returns a hash of the columns, rows and selected rows, so that a
+     * checkpoint is only resumed by the same problem.
+     */
+    long fingerprint()
     {
-        // depth is the maximum depth to search before terminating
-        // if depth is 0, then perform complete search
-        assert depth >= 0;
+        long hash = this.nodes.length;
+        hash = 31 * hash + Arrays.hashCode(this.names);
+        hash = 31 * hash + this.nPrimary;
+        hash = 31 * hash + Arrays.deepHashCode(this.colors);
+        hash = 31 * hash + Arrays.hashCode(this.rowOffsets);
+        hash = 31 * hash + Arrays.hashCode(this.rowColumns);
+        hash = 31 * hash + Arrays.hashCode(this.selected);
+        return hash;
+    }
 
-        // reached search depth
-        // or no columns left -> found solution
-        if ((depth != 0 && k >= depth) || this.header.right == this.header) {
-            List<Node> solution = new ArrayList<>(partialSolution.subList(0, k));
-            solutions.add(new Solution(solution));
-            return solutions;
+    /**
+     * Creates a task which searches below the prefix of a position, resuming
+     * from its resume rows.
+     */
+    SearchTask newTask(SearchMonitor.Position unit, SolutionVisitor visitor,
+                       int depth, AtomicBoolean stopped, boolean parallel,
+                       SearchMonitor monitor)
+    {
+        return new SearchTask(unit.prefix, unit.resume, unit.weight, visitor,
+                depth, stopped, parallel, monitor);
+    }
+
+    /**
+     * Searches these links directly, without copying them or splitting the
+     * search.
+     */
+    private long sequentialSearch(SolutionVisitor visitor)
+    {
+        this.stopped = new AtomicBoolean(false);
+        SearchTask task = new SearchTask(new int[0], new int[0], 1, visitor, 0,
+                this.stopped, false, SearchMonitor.NONE);
+        return search(0, task, visitor, new ArrayList<Node>());
+    }
+
+    @Override
+    public void selectRows(Collection<BitSet> rows)
+    {
+        if (rows == null) {
+            throw new IllegalArgumentException("rows must not be null");
+        }
+
+        // find every row before covering any, so that nothing is covered if
+        // one of the rows is invalid
+        List<Node> selection = new ArrayList<>();
+        BitSet used = new BitSet();
+        for (BitSet row : rows) {
+            if (row == null || row.isEmpty()) {
+                throw new IllegalArgumentException("rows must not be null or empty");
+            }
+            if (row.intersects(used) || row.intersects(this.selectedColumns)) {
+                throw new IllegalArgumentException("selected rows must not share a column");
+            }
+            used.or(row);
+
+            selection.add(findRow(row));
+        }
+        used.or(this.selectedColumns);
+
+        int[] newSelected = Arrays.copyOf(this.selected, this.selected.length + selection.size());
+        for (int i = 0; i < selection.size(); i++) {
+            Node r = selection.get(i);
+            coverRow(r);
+            newSelected[this.selected.length + i] = r.index;
+        }
+        this.selected = newSelected;
+        this.selectedColumns = used;
+    }
+
+    /**
+     * Returns a node of the row with exactly the specified columns. The row
+     * is found by going down the column of its first 1, which is looked up
+     * directly by its id. The row must not share a column with a selected
+     * row, otherwise it may have been removed from its other columns.
+     */
+    private Node findRow(BitSet row)
+    {
+        if (row.length() > this.columns.length) {
+            throw new IllegalArgumentException("a row cannot be longer than names");
+        }
+
+        int[] rowColumns = ExactCover.toColumnArray(row);
+        ColumnNode c = this.columns[rowColumns[0]];
+        Node r = c.down;
+        while (r != c) {
+            if (Arrays.equals(this.rowColumns, this.rowOffsets[r.row],
+                    this.rowOffsets[r.row + 1], rowColumns, 0, rowColumns.length)) {
+                return r;
+            }
+            r = r.down;
+        }
+
+        throw new IllegalArgumentException("row is not in the exact cover: " + row);
+    }
+
+    /**
+     * Searches with a fork/join pool of the specified size. The search starts
+     * as a single task and each task splits off its unexplored branches
+     * whenever there are idle workers to steal them.
+     */
+    private long parallelSearch(SolutionVisitor visitor, int nThreads, int depth)
+    {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+
+        long count;
+        if (this.monitored.isEnabled()) {
+            count = this.monitored.search(visitor, nThreads, depth);
+        }
+        else {
+            ForkJoinPool pool = new ForkJoinPool(nThreads);
+            try {
+                count = pool.invoke(new SearchTask(new int[0], visitor, depth,
+                        new AtomicBoolean(false)));
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        event.commit(nThreads, depth, count);
+        return count;
+    }
+
+
+    /**
+     * Searches for solutions, passing each one to the visitor. If the visitor
+     * is null, solutions are only counted and nothing is allocated for them.
+     * If the task is parallel, it may give some of its branches to other
+     * tasks.
+     *
+     * @return the number of solutions found
+     */
+    private long search(int k, SearchTask task, SolutionVisitor visitor,
+                        List<Node> partialSolution)
+    {
+        if (this.stopped.get()) {
+            return 0;
+        }
+
+        this.counters.node();
+
+        if (task.epoch != task.monitor.epoch) {
+            task.publish(k, partialSolution);
+        }
+
+        // no columns left -> found solution
+        if (this.header.right == this.header) {
+            if (visitor != null) {
+                if (!visitor.visit(toSolution(k, task, partialSolution))) {
+                    this.stopped.set(true);
+                }
+            }
+            this.counters.solution();
+            task.found++;
+            task.done += task.weights[k];
+            return 1;
         }
 
         // pick and cover column with least 1s
         ColumnNode c = minColumn();
         cover(c);
 
+        this.counters.branch(k, c.size);
+
+        // divide this node's share of the tree between its branches
+        if (c.size == 0) {
+            task.done += task.weights[k];
+        }
+        else {
+            task.weights[k + 1] = task.weights[k] / c.size;
+        }
+
         // go down column c
+        long count = 0;
         Node r = c.down;
-        while (r != c) {
+        // when resuming, the rows above the resumed row were already searched
+        if (k == task.resumed && k < task.resume.length) {
+            r = this.nodes[task.resume[k]];
+            // the task searches its own copy, so nothing else is left covered
+            if (r.column != c) {
+                throw new IllegalStateException(
+                        "checkpoint was written with a different column chooser");
+            }
+            task.resumed++;
+        }
+        while (r != c && !this.stopped.get()) {
             // add the row to the partial solution at index k
             if (partialSolution.size() <= k) {
                 partialSolution.add(r);
@@ -162,15 +841,17 @@ public class DancingLinks
                 partialSolution.set(k, r);
             }
 
-            // go across row r and cover each column with a 1
+            task.trySplit(k, partialSolution);
+
+            // go across row r and commit each column with a 1
             Node j = r.right;
             while (j != r) {
-                cover(j.column);
+                commit(j);
                 j = j.right;
             }
 
             // search for next column
-            search(k + 1, depth, solutions, partialSolution);
+            count += search(k + 1, task, visitor, partialSolution);
 
             // uncover each row that we covered from before the recursive search
             r = partialSolution.get(k);
@@ -178,21 +859,31 @@ public class DancingLinks
 
             j = r.left;
             while (j != r) {
-                uncover(j.column);
+                uncommit(j);
                 j = j.left;
             }
 
+            // the rest of this column was given to other tasks
+            if (task.split[k]) {
+                task.split[k] = false;
+                break;
+            }
+
             r = r.down;
         }
 
         // uncover the column we chose at the beginning
         uncover(c);
 
-        return solutions;
+        return count;
     }
 
-    private ColumnNode minColumn()
+    ColumnNode minColumn()
     {
+        if (this.chooser != null) {
+            return this.columns[this.chooser.choose()];
+        }
+
         Node c = this.header.right;
         Node minNode = c;
         int minSize = ((ColumnNode) c).size;
@@ -208,125 +899,539 @@ public class DancingLinks
         return (ColumnNode) minNode;
     }
 
-    private void cover(ColumnNode c)
+    void cover(ColumnNode c)
     {
         c.right.left = c.left;
         c.left.right = c.right;
+        this.activeColumns[(c.index - 1) >> 6] &= ~(1L << (c.index - 1));
+        c.chooser.covered(c.index - 1);
 
         // go down column
+        int updates = 2;
         Node i = c.down;
         while (i != c) {
-            // go across each row
-            Node j = i.right;
-            while (j != i) {
+            updates += hide(i);
+            i = i.down;
+        }
+
+        this.counters.mems(updates);
+    }
+
+    /**
+     * Removes every other node in the row of i from its column. Nodes which
+     * have already been purified to the color of their column are left in
+     * place, since their column will not be searched again until it is
+     * unpurified.
+     *
+     * @return the number of links updated
+     */
+    private int hide(Node i)
+    {
+        int updates = 0;
+        // go across the row
+        Node j = i.right;
+        while (j != i) {
+            if (j.color >= 0) {
                 // remove j from column
                 j.down.up = j.up;
                 j.up.down = j.down;
 
                 j.column.size--;
-
-                j = j.right;
+                updates += 2;
+                j.column.chooser.sizeChanged(j.column.index - 1, j.column.size);
             }
-            i = i.down;
+
+            j = j.right;
+        }
+        return updates;
+    }
+
+    /**
+     * Covers the column of j if j has no color. Otherwise, removes the rows
+     * which have a different color in that column.
+     */
+    private void commit(Node j)
+    {
+        if (j.color == 0) {
+            cover(j.column);
+        }
+        else if (j.color > 0) {
+            purify(j);
         }
     }
 
-    private void cover(List<Node> rows)
+    /**
+     * Removes every row with a different color than p in the column of p,
+     * and marks the rows with the same color so that they are not removed
+     * from that column when they are hidden.
+     */
+    private void purify(Node p)
     {
-        // create a set containing all columns in all rows
-        Set<String> columns = new HashSet<>();
-        for (Node row : rows) {
-            while (columns.add(row.column.name)) {
-                row = row.right;
+        ColumnNode c = p.column;
+        int updates = 0;
+        Node i = c.down;
+        while (i != c) {
+            if (i.color != p.color) {
+                updates += hide(i);
             }
+            else if (i != p) {
+                i.color = -1;
+            }
+            i = i.down;
         }
 
-        for (String c : columns) {
-            ColumnNode h = (ColumnNode) this.header.right;
+        this.counters.mems(updates);
+    }
 
-            while (h != this.header) {
-                if (h.name.equals(c)) {
-                    cover(h);
-                    break;
-                }
-                h = (ColumnNode) h.right;
-            }
+    /**
+     * Covers a column by its id, as the search does when branching on it, so
+     * that covering can be timed on its own. It must be uncovered with
+     * {@link #uncoverColumn(int)} before anything else is covered.
+     */
+    void coverColumn(int column)
+    {
+        cover(this.columns[column]);
+    }
+
+    /**
+     * Undoes {@link #coverColumn(int)}.
+     */
+    void uncoverColumn(int column)
+    {
+        uncover(this.columns[column]);
+    }
+
+    /**
+     * Covers every column of the row containing r, in the same order as they
+     * are covered during the search.
+     */
+    void coverRow(Node r)
+    {
+        commit(r);
+        Node j = r.right;
+        while (j != r) {
+            commit(j);
+            j = j.right;
         }
     }
 
-    private void uncover(ColumnNode c)
+    /**
+     * Undoes {@link #coverRow(Node)}.
+     */
+    void uncoverRow(Node r)
+    {
+        Node j = r.left;
+        while (j != r) {
+            uncommit(j);
+            j = j.left;
+        }
+        uncommit(r);
+    }
+
+    void uncover(ColumnNode c)
     {
         // go up column
+        int updates = 2;
         Node i = c.up;
         while (i != c) {
-            // go across each row
-            Node j = i.left;
-            while (j != i) {
+            updates += unhide(i);
+            i = i.up;
+        }
+
+        this.counters.mems(updates);
+
+        c.right.left = c;
+        c.left.right = c;
+        this.activeColumns[(c.index - 1) >> 6] |= 1L << (c.index - 1);
+        c.chooser.uncovered(c.index - 1);
+    }
+
+    /**
+     * @return the number of links updated
+     */
+    private int unhide(Node i)
+    {
+        int updates = 0;
+        // go across the row in the reverse order
+        Node j = i.left;
+        while (j != i) {
+            if (j.color >= 0) {
                 // add j back to column
                 j.column.size++;
+                j.column.chooser.sizeChanged(j.column.index - 1, j.column.size);
 
                 j.down.up = j;
                 j.up.down = j;
+                updates += 2;
+            }
 
-                j = j.left;
+            j = j.left;
+        }
+        return updates;
+    }
+
+    private void uncommit(Node j)
+    {
+        if (j.color == 0) {
+            uncover(j.column);
+        }
+        else if (j.color > 0) {
+            unpurify(j);
+        }
+    }
+
+    private void unpurify(Node p)
+    {
+        ColumnNode c = p.column;
+        int updates = 0;
+        Node i = c.up;
+        while (i != c) {
+            if (i.color < 0) {
+                i.color = p.color;
+            }
+            else if (i != p) {
+                updates += unhide(i);
             }
             i = i.up;
         }
 
-        c.right.left = c;
-        c.left.right = c;
+        this.counters.mems(updates);
+    }
+
+    /**
+     * Creates a Solution from the first k rows of the partial solution, the
+     * rows of the task's prefix and the selected rows.
+     */
+    private Solution toSolution(int k, SearchTask task, List<Node> partialSolution)
+    {
+        List<Node> solution = new ArrayList<>(partialSolution.subList(0, k));
+        for (int n : task.prefix) {
+            solution.add(this.nodes[n]);
+        }
+        for (int n : this.selected) {
+            solution.add(this.nodes[n]);
+        }
+
+        List<int[]> rows = new ArrayList<>();
+        List<int[]> colors = (this.colors == null) ? null : new ArrayList<int[]>();
+        for (Node n : solution) {
+            rows.add(Arrays.copyOfRange(this.rowColumns, this.rowOffsets[n.row],
+                    this.rowOffsets[n.row + 1]));
+            if (colors != null) {
+                colors.add(this.colors[n.row]);
+            }
+        }
+        return new Solution(this.names, rows, colors);
     }
 
-    private void addRow(BitSet row)
+    /**
+     * Adds the nodes of a row, starting at the specified index.
+     *
+     * @return the index of the next node to be added
+     */
+    private int addRow(int row, int index)
     {
-        Node header = this.header;
         Node prev = null;
-        for (int col = 0; col < row.length(); col++) {
-            header = header.right;
-            if (row.get(col)) {
-                Node newNode = new Node();
-                newNode.column = (ColumnNode) header;
-                ((ColumnNode) header).size++;
-
-                // add new node to bottom of list
-                header.up.down = newNode;
-                newNode.down = header;
-                newNode.up = header.up;
-                header.up = newNode;
-
-                // add to right of list
-                if (prev == null) {
-                    newNode.left = newNode;
-                    newNode.right = newNode;
+        int start = this.rowOffsets[row];
+        for (int i = start; i < this.rowOffsets[row + 1]; i++) {
+            ColumnNode header = this.columns[this.rowColumns[i]];
+            Node newNode = new Node(index);
+            this.nodes[index] = newNode;
+            index++;
+            newNode.column = header;
+            newNode.row = row;
+            if (this.colors != null) {
+                newNode.color = this.colors[row][i - start];
+            }
+            header.size++;
+
+            // add new node to bottom of list
+            header.up.down = newNode;
+            newNode.down = header;
+            newNode.up = header.up;
+            header.up = newNode;
+
+            // add to right of list
+            if (prev == null) {
+                newNode.left = newNode;
+                newNode.right = newNode;
+            }
+            else {
+                newNode.left = prev;
+                newNode.right = prev.right;
+                prev.right.left = newNode;
+                prev.right = newNode;
+            }
+            prev = newNode;
+        }
+
+        return index;
+    }
+
+    /**
+     * Searches the subtree below a partial solution. Each task searches its
+     * own copy of the DancingLinks, and gives its unexplored branches to new
+     * tasks when other workers are idle.
+     */
+    class SearchTask extends RecursiveTask<Long>
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** The indices of the nodes of the rows of the partial solution. */
+        private final int[] prefix;
+        /**
+         * The indices of the nodes of the rows to resume from at each level,
+         * or an empty array if this task starts from the beginning.
+         */
+        private final int[] resume;
+        private final SolutionVisitor visitor;
+        private final int depth;
+        private final AtomicBoolean stopped;
+        private final boolean parallel;
+        private final List<SearchTask> subtasks;
+        /** Whether the remaining branches at each level were given away. */
+        private final boolean[] split;
+
+        /**
+         * Records the position of this task for checkpoints and progress, or
+         * ignores it if neither is enabled.
+         */
+        private final SearchMonitor monitor;
+        /** The share of the search tree of the current node at each level. */
+        private final double[] weights;
+        /** The share of the search tree explored by this task. */
+        double done;
+        /** The number of levels of the resume array used so far. */
+        private int resumed;
+        /**
+         * The number of levels at which only the current row is left to
+         * this task, since the rest were given away.
+         */
+        private int fixedDepth;
+        /** The number of solutions found by this task, not its subtasks. */
+        long found;
+        /** The monitor's epoch when the position was last published. */
+        private int epoch;
+        volatile SearchMonitor.Position position;
+
+        private SearchTask(int[] prefix, SolutionVisitor visitor, int depth,
+                           AtomicBoolean stopped)
+        {
+            this(prefix, new int[0], 1, visitor, depth, stopped, true,
+                    SearchMonitor.NONE);
+        }
+
+        /**
+         * @param weight the share of the search tree below the prefix
+         */
+        private SearchTask(int[] prefix, int[] resume, double weight,
+                           SolutionVisitor visitor, int depth,
+                           AtomicBoolean stopped, boolean parallel,
+                           SearchMonitor monitor)
+        {
+            this.prefix = prefix;
+            this.resume = resume;
+            this.visitor = visitor;
+            this.depth = depth;
+            this.stopped = stopped;
+            this.parallel = parallel;
+            this.subtasks = new ArrayList<>();
+            this.split = new boolean[DancingLinks.this.names.length];
+            this.monitor = monitor;
+            this.weights = new double[DancingLinks.this.names.length + 1];
+            this.weights[0] = weight;
+            this.position = new SearchMonitor.Position(prefix, resume, weight, 0, 0);
+        }
+
+        @Override
+        protected Long compute()
+        {
+            if (this.stopped.get()) {
+                return 0L;
+            }
+
+            SearchTaskEvent event = new SearchTaskEvent();
+            event.begin();
+
+            // copy the links and cover the rows of the partial solution, node
+            // indices are the same in the copy
+            DancingLinks dl = new DancingLinks(DancingLinks.this);
+            for (int n : this.prefix) {
+                dl.coverRow(dl.nodes[n]);
+            }
+            dl.stopped = this.stopped;
+            if (dl.metrics != null) {
+                dl.counters = dl.metrics.newCounters();
+            }
+
+            long count = dl.search(0, this, this.visitor, new ArrayList<Node>());
+            if (dl.metrics != null) {
+                dl.metrics.retire(dl.counters);
+            }
+            // a stopped task keeps its position for the final checkpoint
+            if (!this.stopped.get()) {
+                this.monitor.finish(this);
+            }
+
+            // commit before joining, so the event only covers this task's
+            // own work
+            if (event.shouldCommit()) {
+                event.prefixSize = this.prefix.length;
+                event.depth = this.depth;
+                event.solutions = count;
+                event.subtasks = this.subtasks.size();
+                event.commit();
+            }
+
+            // join in reverse order so that tasks which were not stolen are
+            // taken straight from the top of this worker's queue
+            for (int i = this.subtasks.size() - 1; i >= 0; i--) {
+                count += this.subtasks.get(i).join();
+            }
+
+            return count;
+        }
+
+        /**
+         * Gives the unexplored branches at the shallowest level of the
+         * current partial solution to new tasks, if other workers are likely
+         * to be idle. The shallowest branches are the most likely to have
+         * large subtrees.
+         */
+        private void trySplit(int k, List<Node> partialSolution)
+        {
+            if (!this.parallel || getSurplusQueuedTaskCount() > SPLIT_THRESHOLD) {
+                return;
+            }
+
+            if (this.monitor == SearchMonitor.NONE) {
+                split(k, partialSolution);
+                return;
+            }
+
+            // the new tasks and this task's new position must be seen by
+            // the monitor together
+            synchronized (this.monitor) {
+                if (split(k, partialSolution)) {
+                    publish(k + 1, partialSolution);
                 }
-                else {
-                    newNode.left = prev;
-                    newNode.right = prev.right;
-                    prev.right.left = newNode;
-                    prev.right = newNode;
+            }
+        }
+
+        /**
+         * Gives away the unexplored branches at the shallowest level which
+         * has any, if that level is within the depth limit.
+         *
+         * @return whether any branches were given away
+         */
+        private boolean split(int k, List<Node> partialSolution)
+        {
+
+            for (int i = 0; i <= k; i++) {
+                if (this.depth != 0 && this.prefix.length + i >= this.depth) {
+                    return false;
                 }
-                prev = newNode;
+
+                Node row = partialSolution.get(i);
+                if (this.split[i] || row.down == row.column) {
+                    continue;
+                }
+
+                SplitEvent event = new SplitEvent();
+                event.begin();
+                int nSubtasks = this.subtasks.size();
+
+                Node sibling = row.down;
+                while (sibling != row.column) {
+                    int[] newPrefix = Arrays.copyOf(this.prefix, this.prefix.length + i + 1);
+                    for (int j = 0; j < i; j++) {
+                        newPrefix[this.prefix.length + j] = partialSolution.get(j).index;
+                    }
+                    newPrefix[newPrefix.length - 1] = sibling.index;
+
+                    // each sibling has the same share as the current row
+                    double weight = this.weights[i + 1];
+                    SearchTask task = new SearchTask(newPrefix, new int[0], weight,
+                            this.visitor, this.depth, this.stopped, true,
+                            this.monitor);
+                    // register before the task can run and finish
+                    this.monitor.register(task);
+                    task.fork();
+                    this.subtasks.add(task);
+
+                    sibling = sibling.down;
+                }
+                this.split[i] = true;
+
+                if (event.shouldCommit()) {
+                    event.prefixSize = this.prefix.length + i + 1;
+                    event.tasks = this.subtasks.size() - nSubtasks;
+                    event.commit();
+                }
+                this.fixedDepth = Math.max(this.fixedDepth, i + 1);
+                return true;
             }
+            return false;
+        }
+
+        /**
+         * Records the position of this task when about to search the node at
+         * level k of the partial solution. The rows at levels which were
+         * split become part of the prefix, and the rest, along with any
+         * levels not yet resumed, are where to resume from.
+         */
+        private void publish(int k, List<Node> partialSolution)
+        {
+            int[] fixed = Arrays.copyOf(this.prefix, this.prefix.length + this.fixedDepth);
+            for (int i = 0; i < this.fixedDepth; i++) {
+                fixed[this.prefix.length + i] = partialSolution.get(i).index;
+            }
+
+            int nResume = Math.max(0, this.resume.length - this.resumed);
+            int[] resume = new int[k - this.fixedDepth + nResume];
+            for (int i = this.fixedDepth; i < k; i++) {
+                resume[i - this.fixedDepth] = partialSolution.get(i).index;
+            }
+            System.arraycopy(this.resume, this.resume.length - nResume, resume,
+                    k - this.fixedDepth, nResume);
+
+            this.position = new SearchMonitor.Position(fixed, resume,
+                    this.weights[this.fixedDepth], this.found, this.done);
+            this.epoch = this.monitor.epoch;
         }
     }
 
-    private class Node
+    static class Node
     {
         protected Node left;
         protected Node right;
         protected Node up;
         protected Node down;
         protected ColumnNode column;
+        protected int row;
+        /**
+         * The color of this node, 0 if it has no color or -1 if its column
+         * has been purified to its color.
+         */
+        protected int color;
+        protected final int index;
+
+        public Node(int index)
+        {
+            this.index = index;
+        }
     }
 
-    private class ColumnNode extends Node
+    static class ColumnNode extends Node
     {
         private int size;
         private String name;
+        /** Told about every update of this column. */
+        private ColumnChooser chooser = NO_CHOOSER;
 
-        public ColumnNode(String name)
+        public ColumnNode(String name, int index)
         {
-            super();
+            super(index);
             super.column = this;
             this.size = 0;
             this.name = name;
@@ -338,46 +1443,4 @@ public class DancingLinks
             return this.name;
         }
     }
-
-    public class Solution
-    {
-        List<Node> rows;
-
-        private Solution(List<Node> rows)
-        {
-            assert (rows != null);
-            this.rows = rows;
-        }
-
-        @Override
-        public String toString()
-        {
-            StringBuilder sb = new StringBuilder();
-            for (Node row : this.rows) {
-                sb.append(toRowString(row));
-                sb.append("\n");
-            }
-
-            // delete extra newline
-            sb.deleteCharAt(sb.length() - 1);
-
-            return sb.toString();
-        }
-
-        private String toRowString(Node n)
-        {
-            StringBuilder sb = new StringBuilder();
-
-            Node c = n;
-            do {
-                sb.append(c.column.name);
-                c = c.right;
-                if (c != n) {
-                    sb.append(", ");
-                }
-            } while (c != n);
-
-            return sb.toString();
-        }
-    }
 }
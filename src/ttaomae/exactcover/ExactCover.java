@@ -5,37 +5,191 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 public class ExactCover
 {
     private final String[] names;
-    private final Set<BitSet> rows;
+    /**
+     * The number of primary columns. The first nPrimary columns must be
+     * covered exactly once, the remaining secondary columns at most once.
+     */
+    private final int nPrimary;
+    /**
+     * The rows in compressed sparse row form. The ascending columns of row r
+     * are columns[offsets[r]] up to columns[offsets[r + 1]].
+     */
+    private final int[] offsets;
+    private final int[] columns;
+    /**
+     * The color of each 1 in each row, in the order of the columns, or null
+     * if no row has colors. A color of 0 means that the 1 has no color.
+     */
+    private final List<int[]> colors;
+
+    /**
+     * Orders rows by the first column in which they differ, with the row
+     * which contains that column first. The iteration order of a set of rows
+     * can differ between runs, so sorting gives every run the same row
+     * numbers, which checkpoints rely on.
+     */
+    private static final Comparator<int[]> ROW_ORDER = new Comparator<int[]>() {
+        @Override
+        public int compare(int[] a, int[] b)
+        {
+            int length = Math.min(a.length, b.length);
+            for (int i = 0; i < length; i++) {
+                if (a[i] != b[i]) {
+                    return (a[i] < b[i]) ? -1 : 1;
+                }
+            }
+            // the longer row contains the first column not in the other
+            return b.length - a.length;
+        }
+    };
 
     public ExactCover(String[] names, Set<BitSet> rows)
     {
-        if (names == null || rows == null) {
-            throw new IllegalArgumentException("arguments must not be null");
+        this(names, (names == null) ? 0 : names.length, rows);
+    }
+
+    /**
+     * Constructs a new ExactCover in which only the first nPrimary columns
+     * must be covered. The remaining columns are secondary columns which may
+     * be covered at most once, but do not need to be covered. A row which
+     * only contains secondary columns is never part of a solution.
+     *
+     * @param names
+     * @param nPrimary
+     * @param rows
+     */
+    public ExactCover(String[] names, int nPrimary, Set<BitSet> rows)
+    {
+        checkArguments(names, nPrimary, rows);
+
+        this.names = Arrays.copyOf(names, names.length);
+        this.nPrimary = nPrimary;
+        int[][] sorted = toSortedArray(toColumnArrays(rows));
+        this.offsets = toOffsets(sorted);
+        this.columns = toColumns(sorted);
+        this.colors = null;
+    }
+
+    /**
+     * Constructs a new ExactCover from rows in compressed sparse row form.
+     * The columns of row r are columns[offsets[r]] up to
+     * columns[offsets[r + 1]], in ascending order. Unlike a set of rows, the
+     * rows are kept in the order they are given. The arrays are copied.
+     *
+     * @param removeDuplicates whether to remove every row which is identical
+     *            to an earlier row. Rows are compared by a fingerprint of
+     *            their columns, and only rows with the same fingerprint are
+     *            compared column by column.
+     * @throws IllegalArgumentException if the offsets are not ascending, or
+     *             a row is not strictly ascending or contains a column which
+     *             is not in names
+     */
+    public ExactCover(String[] names, int nPrimary, int[] offsets, int[] columns,
+                      boolean removeDuplicates)
+    {
+        checkArguments(names, nPrimary, offsets, columns);
+
+        int[] rowOffsets = offsets.clone();
+        int[] rowColumns = Arrays.copyOf(columns, offsets[offsets.length - 1]);
+        if (removeDuplicates) {
+            int nRows = removeDuplicates(rowOffsets, rowColumns);
+            rowOffsets = Arrays.copyOf(rowOffsets, nRows + 1);
+            rowColumns = Arrays.copyOf(rowColumns, rowOffsets[nRows]);
         }
-        if (names.length == 0) {
-            throw new IllegalArgumentException("names must have at least one column");
+
+        this.names = Arrays.copyOf(names, names.length);
+        this.nPrimary = nPrimary;
+        this.offsets = rowOffsets;
+        this.columns = rowColumns;
+        this.colors = null;
+    }
+
+    /**
+     * Constructs a new ExactCover from rows in compressed sparse row form,
+     * like {@link #ExactCover(String[], int, int[], int[], boolean)} without
+     * removing duplicates, but using the arrays instead of copying them.
+     * They must not be modified afterwards, and the last offset must be the
+     * length of columns.
+     */
+    ExactCover(String[] names, int nPrimary, int[] offsets, int[] columns)
+    {
+        checkArguments(names, nPrimary, offsets, columns);
+        if (offsets[offsets.length - 1] != columns.length) {
+            throw new IllegalArgumentException("offsets must end at the end of columns");
         }
 
-        if (rows.size() == 0) {
-            throw new IllegalArgumentException("there must be at least one row");
+        this.names = names;
+        this.nPrimary = nPrimary;
+        this.offsets = offsets;
+        this.columns = columns;
+        this.colors = null;
+    }
+
+    /**
+     * Constructs a new ExactCover in which the 1s of secondary columns may
+     * have colors. Rows which have the same color in a secondary column are
+     * compatible, so that column may be covered by more than one row of a
+     * solution as long as every one of them has the same color. A 1 without
+     * a color is not compatible with any other 1 in its column.
+     *
+     * @param names
+     * @param nPrimary
+     * @param rows
+     * @param colors the colors of each row, with one color for each 1 of the
+     *            row in order of the columns. Colors must be positive, or 0
+     *            for no color. Only secondary columns may have a color.
+     */
+    public ExactCover(String[] names, int nPrimary, List<BitSet> rows, List<int[]> colors)
+    {
+        checkArguments(names, nPrimary, rows);
+        if (colors == null) {
+            throw new IllegalArgumentException("arguments must not be null");
         }
-        for (BitSet row : rows) {
-            if (row.length() > names.length) {
-                throw new IllegalArgumentException("a row cannot be longer than names");
+        if (colors.size() != rows.size()) {
+            throw new IllegalArgumentException("there must be colors for every row");
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            BitSet row = rows.get(i);
+            int[] rowColors = colors.get(i);
+            if (rowColors == null || rowColors.length != row.cardinality()) {
+                throw new IllegalArgumentException("there must be a color for every 1 of a row");
+            }
+
+            int j = 0;
+            for (int col = row.nextSetBit(0); col >= 0; col = row.nextSetBit(col + 1)) {
+                if (rowColors[j] < 0) {
+                    throw new IllegalArgumentException("colors must not be negative");
+                }
+                if (rowColors[j] != 0 && col < nPrimary) {
+                    throw new IllegalArgumentException("primary columns must not have colors");
+                }
+                j++;
             }
         }
 
         this.names = Arrays.copyOf(names, names.length);
-        this.rows = new HashSet<>(rows);
+        this.nPrimary = nPrimary;
+        int[][] rowArrays = toColumnArrays(rows).toArray(new int[0][]);
+        this.offsets = toOffsets(rowArrays);
+        this.columns = toColumns(rowArrays);
+        this.colors = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            this.colors.add(Arrays.copyOf(colors.get(i), colors.get(i).length));
+        }
     }
 
     public ExactCover(Set<BitSet> rows)
@@ -46,13 +200,22 @@ public class ExactCover
     public ExactCover(String[] names, String sets) throws DataFormatException
     {
         this.names = Arrays.copyOf(names, names.length);
-        this.rows = stringToBitSets(sets);
+        this.nPrimary = this.names.length;
+        int[][] sorted = toSortedArray(stringToRows(sets));
+        this.offsets = toOffsets(sorted);
+        this.columns = toColumns(sorted);
+        this.colors = null;
     }
 
     public ExactCover(String sets) throws DataFormatException
     {
-        this.rows = stringToBitSets(sets);
-        this.names = generateColumnNames(this.rows);
+        List<int[]> rows = stringToRows(sets);
+        this.names = generateColumnNames(rows);
+        this.nPrimary = this.names.length;
+        int[][] sorted = toSortedArray(rows);
+        this.offsets = toOffsets(sorted);
+        this.columns = toColumns(sorted);
+        this.colors = null;
     }
 
     public ExactCover(File file) throws FileNotFoundException, IOException,
@@ -62,51 +225,285 @@ public class ExactCover
             throw new IllegalArgumentException("file must not be null");
         }
 
-        this.rows = new HashSet<>();
+        List<int[]> rows = new ArrayList<>();
 
         try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line = br.readLine().trim();
+            String line = br.readLine();
 
             if (line == null) {
                 throw new DataFormatException("file is empty");
             }
+            line = line.trim();
 
             if (line.startsWith("#")) {
-                // remove #, trim, then split on whitespace
-                this.names = line.substring(1).trim().split("\\s+");
+                Header header = Header.parse(line);
+                this.names = header.names;
+                this.nPrimary = header.nPrimary;
 
                 while ((line = br.readLine()) != null) {
-                    this.rows.add(stringToBitSet(line.trim()));
+                    rows.add(stringToColumns(line.trim()));
                 }
             }
             else {
                 // we have already read one line so use do-while
                 do {
-                    this.rows.add(stringToBitSet(line.trim()));
+                    rows.add(stringToColumns(line.trim()));
                 } while ((line = br.readLine()) != null);
 
-                this.names = generateColumnNames(this.rows);
+                this.names = generateColumnNames(rows);
+                this.nPrimary = this.names.length;
             }
         }
 
-        if (this.rows.size() == 0) {
+        if (rows.size() == 0) {
             throw new DataFormatException("no data");
         }
+
+        int[][] sorted = toSortedArray(rows);
+        this.offsets = toOffsets(sorted);
+        this.columns = toColumns(sorted);
+        this.colors = null;
+    }
+
+    /**
+     * A header line of column names, starting with '#'. Names after a '|'
+     * are secondary columns.
+     */
+    static class Header
+    {
+        final String[] names;
+        final int nPrimary;
+
+        private Header(String[] names, int nPrimary)
+        {
+            this.names = names;
+            this.nPrimary = nPrimary;
+        }
+
+        static Header parse(String line) throws DataFormatException
+        {
+            // remove #, trim, then split on whitespace
+            String[] header = line.substring(1).trim().split("\\s+");
+            int separator = Arrays.asList(header).indexOf("|");
+            if (separator != Arrays.asList(header).lastIndexOf("|")) {
+                throw new DataFormatException("header must not contain more than one '|'");
+            }
+            if (separator == 0) {
+                throw new DataFormatException("header must contain at least one primary column");
+            }
+
+            if (separator == -1) {
+                return new Header(header, header.length);
+            }
+
+            String[] names = new String[header.length - 1];
+            System.arraycopy(header, 0, names, 0, separator);
+            System.arraycopy(header, separator + 1, names, separator,
+                    header.length - separator - 1);
+            return new Header(names, separator);
+        }
     }
 
-    private static int getMaxColumns(Set<BitSet> rows)
+    private static void checkArguments(String[] names, int nPrimary, Collection<BitSet> rows)
+    {
+        if (names == null || rows == null) {
+            throw new IllegalArgumentException("arguments must not be null");
+        }
+        checkColumns(names, nPrimary, rows.size());
+        for (BitSet row : rows) {
+            if (row.length() > names.length) {
+                throw new IllegalArgumentException("a row cannot be longer than names");
+            }
+        }
+    }
+
+    private static void checkArguments(String[] names, int nPrimary, int[] offsets,
+                                       int[] columns)
+    {
+        if (names == null || offsets == null || columns == null) {
+            throw new IllegalArgumentException("arguments must not be null");
+        }
+        checkColumns(names, nPrimary, offsets.length - 1);
+        if (offsets[0] != 0 || offsets[offsets.length - 1] > columns.length) {
+            throw new IllegalArgumentException("offsets must be within columns");
+        }
+        for (int r = 0; r + 1 < offsets.length; r++) {
+            if (offsets[r + 1] < offsets[r]) {
+                throw new IllegalArgumentException("offsets must be ascending");
+            }
+            for (int i = offsets[r]; i < offsets[r + 1]; i++) {
+                if (columns[i] < 0 || columns[i] >= names.length) {
+                    throw new IllegalArgumentException("invalid column: " + columns[i]);
+                }
+                if (i > offsets[r] && columns[i] <= columns[i - 1]) {
+                    throw new IllegalArgumentException("columns of a row must be ascending");
+                }
+            }
+        }
+    }
+
+    private static void checkColumns(String[] names, int nPrimary, int nRows)
+    {
+        if (names.length == 0) {
+            throw new IllegalArgumentException("names must have at least one column");
+        }
+        if (nPrimary < 1 || nPrimary > names.length) {
+            throw new IllegalArgumentException(
+                    "nPrimary must be positive and no greater than the number of names");
+        }
+
+        if (nRows < 1) {
+            throw new IllegalArgumentException("there must be at least one row");
+        }
+    }
+
+    /**
+     * Returns the distinct rows in order of ROW_ORDER. The arrays are not
+     * copied.
+     */
+    private static int[][] toSortedArray(Collection<int[]> rows)
+    {
+        int[][] sorted = rows.toArray(new int[0][]);
+        Arrays.sort(sorted, ROW_ORDER);
+
+        // duplicates are next to each other once sorted
+        int length = 0;
+        for (int[] row : sorted) {
+            if (length == 0 || !Arrays.equals(row, sorted[length - 1])) {
+                sorted[length++] = row;
+            }
+        }
+        return Arrays.copyOf(sorted, length);
+    }
+
+    private static int[] toOffsets(int[][] rows)
+    {
+        int[] offsets = new int[rows.length + 1];
+        for (int r = 0; r < rows.length; r++) {
+            offsets[r + 1] = offsets[r] + rows[r].length;
+        }
+        return offsets;
+    }
+
+    private static int[] toColumns(int[][] rows)
+    {
+        int length = 0;
+        for (int[] row : rows) {
+            length += row.length;
+        }
+
+        int[] columns = new int[length];
+        int i = 0;
+        for (int[] row : rows) {
+            System.arraycopy(row, 0, columns, i, row.length);
+            i += row.length;
+        }
+        return columns;
+    }
+
+    /**
+     * Removes every row which is identical to an earlier row, moving the
+     * remaining rows forward in place. The rows are found in a hash table of
+     * their fingerprints.
+     *
+     * @return the number of rows which remain
+     */
+    private static int removeDuplicates(int[] offsets, int[] columns)
+    {
+        int nRows = offsets.length - 1;
+        int[] table = new int[Math.max(Integer.highestOneBit(Math.max(nRows, 1)) << 2, 16)];
+        Arrays.fill(table, -1);
+        int mask = table.length - 1;
+        long[] fingerprints = new long[nRows];
+
+        // the kept rows are moved to the start of the arrays, so offsets[k]
+        // is the new start of kept row k, and end is the end of the last one
+        int kept = 0;
+        int end = 0;
+        for (int r = 0; r < nRows; r++) {
+            int start = offsets[r];
+            int length = offsets[r + 1] - start;
+            long fingerprint = fingerprint(columns, start, length);
+
+            int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+            boolean duplicate = false;
+            for (; table[slot] != -1; slot = (slot + 1) & mask) {
+                int k = table[slot];
+                int kStart = offsets[k];
+                int kEnd = (k + 1 < kept) ? offsets[k + 1] : end;
+                if (fingerprints[k] == fingerprint
+                        && rangeEquals(columns, kStart, kEnd, start, start + length)) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (duplicate) {
+                continue;
+            }
+
+            table[slot] = kept;
+            fingerprints[kept] = fingerprint;
+            System.arraycopy(columns, start, columns, end, length);
+            offsets[kept] = end;
+            end += length;
+            kept++;
+        }
+        offsets[kept] = end;
+
+        return kept;
+    }
+
+    private static long fingerprint(int[] columns, int start, int length)
+    {
+        long hash = length * 0x9E3779B97F4A7C15L;
+        for (int i = start; i < start + length; i++) {
+            hash = Long.rotateLeft(hash ^ columns[i], 31) * 0xBF58476D1CE4E5B9L;
+        }
+        return hash ^ (hash >>> 29);
+    }
+
+    private static boolean rangeEquals(int[] a, int aStart, int aEnd, int bStart, int bEnd)
+    {
+        if (aEnd - aStart != bEnd - bStart) {
+            return false;
+        }
+        for (int i = 0; i < aEnd - aStart; i++) {
+            if (a[aStart + i] != a[bStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<int[]> toColumnArrays(Collection<BitSet> rows)
+    {
+        List<int[]> result = new ArrayList<>();
+        for (BitSet row : rows) {
+            result.add(toColumnArray(row));
+        }
+        return result;
+    }
+
+    private static int getMaxColumns(List<int[]> rows)
     {
         assert (rows.size() > 0);
 
         int max = 0;
-        for (BitSet row : rows) {
-            max = Math.max(max, row.length());
+        for (int[] row : rows) {
+            if (row.length > 0) {
+                max = Math.max(max, row[row.length - 1] + 1);
+            }
         }
 
         return max;
     }
 
     private static String[] generateColumnNames(Set<BitSet> rows)
+    {
+        return generateColumnNames(toColumnArrays(rows));
+    }
+
+    private static String[] generateColumnNames(List<int[]> rows)
     {
         int numColumns = getMaxColumns(rows);
         assert (numColumns > 0);
@@ -135,31 +532,42 @@ public class ExactCover
         }
     }
 
-    private static Set<BitSet> stringToBitSets(String str) throws DataFormatException
+    private static List<int[]> stringToRows(String str) throws DataFormatException
     {
         String[] rows = str.split("\\r?\\n");
-        Set<BitSet> bitSets = new HashSet<>();
+        List<int[]> result = new ArrayList<>();
 
         for (int i = 0; i < rows.length; i++) {
-            bitSets.add(stringToBitSet(rows[i]));
+            result.add(stringToColumns(rows[i]));
         }
 
-        return bitSets;
+        return result;
     }
 
-    private static BitSet stringToBitSet(String str) throws DataFormatException
+    /**
+     * Returns the ascending columns of the '1's of a line of '1's and '0's.
+     */
+    private static int[] stringToColumns(String str) throws DataFormatException
     {
-        BitSet s = new BitSet();
+        int count = 0;
         for (int i = 0; i < str.length(); i++) {
             if (str.charAt(i) == '1') {
-                s.set(i);
+                count++;
             }
             else if (str.charAt(i) != '0') {
                 throw new DataFormatException("data should only contains '1's and '0's: " + str);
             }
         }
 
-        return s;
+        int[] columns = new int[count];
+        int j = 0;
+        for (int i = 0; j < count; i++) {
+            if (str.charAt(i) == '1') {
+                columns[j++] = i;
+            }
+        }
+
+        return columns;
     }
 
     /**
@@ -171,12 +579,116 @@ public class ExactCover
     }
 
     /**
+     * Returns the number of primary columns. Primary columns come before any
+     * secondary columns.
+     *
+     * @return the number of primary columns
+     */
+    public int getNumPrimaryColumns()
+    {
+        return this.nPrimary;
+    }
+
+    /**
+     * Returns whether the 1s of any row have colors.
+     */
+    public boolean hasColors()
+    {
+        return this.colors != null;
+    }
+
+    /**
+     * Returns the rows. Rows which only differ by their colors are only
+     * included once.
+     *
      * @return the rows
      */
     public Set<BitSet> getRows()
     {
-        return Collections.unmodifiableSet(this.rows);
+        Set<BitSet> result = new LinkedHashSet<>();
+        for (int r = 0; r + 1 < this.offsets.length; r++) {
+            BitSet bits = new BitSet();
+            for (int i = this.offsets[r]; i < this.offsets[r + 1]; i++) {
+                bits.set(this.columns[i]);
+            }
+            result.add(bits);
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Returns the number of rows, including rows which only differ by their
+     * colors.
+     */
+    public int getNumRows()
+    {
+        return this.offsets.length - 1;
+    }
+
+    /**
+     * Returns a read-only view of the offsets of the rows, without copying
+     * them. The columns of row r are at indices offsets[r] up to
+     * offsets[r + 1] of {@link #getColumnIndices()}, and the last offset is
+     * the number of 1s.
+     */
+    public IntBuffer getRowOffsets()
+    {
+        return IntBuffer.wrap(this.offsets).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a read-only view of the ascending columns of each row, one row
+     * after another, without copying them.
+     */
+    public IntBuffer getColumnIndices()
+    {
+        return IntBuffer.wrap(this.columns).asReadOnlyBuffer();
     }
 
+    /**
+     * Returns the offsets of the rows, as in {@link #getRowOffsets()}. The
+     * array is not copied and must not be modified.
+     */
+    int[] getOffsetArray()
+    {
+        return this.offsets;
+    }
 
+    /**
+     * Returns the columns of each row, as in {@link #getColumnIndices()}.
+     * The array is not copied and must not be modified. The rows are always
+     * in the same order, so every solver constructed from this ExactCover
+     * numbers the rows identically.
+     */
+    int[] getColumnArray()
+    {
+        return this.columns;
+    }
+
+    /**
+     * Returns the ascending indices of the columns of a row.
+     */
+    static int[] toColumnArray(BitSet row)
+    {
+        int[] columns = new int[row.cardinality()];
+        int j = 0;
+        for (int col = row.nextSetBit(0); col >= 0; col = row.nextSetBit(col + 1)) {
+            columns[j++] = col;
+        }
+
+        return columns;
+    }
+
+    /**
+     * Returns the colors of each row, in the same order as the rows of
+     * {@link #getOffsetArray()}, or null if no row has colors.
+     */
+    int[][] getRowColors()
+    {
+        if (this.colors == null) {
+            return null;
+        }
+
+        return this.colors.toArray(new int[0][]);
+    }
 }
@@ -0,0 +1,63 @@
+package ttaomae.exactcover;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A search engine for exact cover problems. Every implementation is
+ * constructed from an ExactCover and produces the same set of Solutions, so
+ * engines can be swapped without changing the code which uses them.
+ */
+public interface ExactCoverSolver
+{
+    /**
+     * Returns every solution to the exact cover problem.
+     */
+    List<Solution> getSolutions();
+
+    /**
+     * Returns every solution to the exact cover problem, searching with the
+     * specified number of threads. Unexplored branches of the search tree are
+     * split off whenever a thread is idle, but never below the specified
+     * depth. A depth of 0 allows the search to be split at any depth.
+     */
+    List<Solution> getSolutions(int nThreads, int depth);
+
+    /**
+     * Passes each solution to the visitor as soon as it is found, until
+     * either the search is complete or the visitor returns false.
+     */
+    void solve(SolutionVisitor visitor);
+
+    /**
+     * Passes each solution to the visitor as soon as it is found, searching
+     * with the specified number of threads, as in getSolutions(int, int).
+     * The visitor is called concurrently from each thread. Once the visitor
+     * returns false, every thread stops searching.
+     */
+    void solve(SolutionVisitor visitor, int nThreads, int depth);
+
+    /**
+     * Returns the number of solutions to the exact cover problem without
+     * creating any Solutions.
+     */
+    long countSolutions();
+
+    /**
+     * Returns the number of solutions to the exact cover problem, searching
+     * with the specified number of threads, as in getSolutions(int, int).
+     */
+    long countSolutions(int nThreads, int depth);
+
+    /**
+     * Selects rows which must be part of every solution, such as pieces
+     * which are already placed, by covering their columns before searching.
+     * The selected rows are included in every solution which is found.
+     *
+     * @param rows rows of the ExactCover this solver was constructed from
+     * @throws IllegalArgumentException if a row is not in the ExactCover or
+     *             shares a column with another selected row
+     */
+    void selectRows(Collection<BitSet> rows);
+}
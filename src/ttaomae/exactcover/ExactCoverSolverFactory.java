@@ -0,0 +1,14 @@
+package ttaomae.exactcover;
+
+/**
+ * Creates a search engine for an exact cover problem. Code which builds its
+ * own ExactCover, such as a puzzle, uses a factory so that its callers can
+ * choose and configure the engine.
+ */
+public interface ExactCoverSolverFactory
+{
+    /**
+     * Returns a new solver constructed from the problem.
+     */
+    ExactCoverSolver create(ExactCover ec);
+}
@@ -0,0 +1,53 @@
+package ttaomae.exactcover;
+
+/**
+ * Chooses a search engine for an exact cover problem.
+ */
+public final class ExactCoverSolvers
+{
+    /**
+     * The most columns for which BitsetAlgorithmX is chosen. Each level of
+     * its search copies the number of rows in every column, which costs more
+     * than following links once there are many columns.
+     */
+    static final int MAX_BITSET_COLUMNS = 512;
+    /**
+     * The most rows for which BitsetAlgorithmX is chosen, which limits its
+     * conflict masks to 8 MB.
+     */
+    static final int MAX_BITSET_ROWS = 8192;
+
+    /**
+     * A factory which chooses an engine with {@link #create(ExactCover)}.
+     */
+    public static final ExactCoverSolverFactory DEFAULT = new ExactCoverSolverFactory() {
+        @Override
+        public ExactCoverSolver create(ExactCover ec)
+        {
+            return ExactCoverSolvers.create(ec);
+        }
+    };
+
+    private ExactCoverSolvers()
+    {
+    }
+
+    /**
+     * Returns a BitsetAlgorithmX if the problem is small enough and has no
+     * colors, otherwise a DancingLinks. Features which only DancingLinks
+     * has, such as checkpoints, column choosers and metrics, need a
+     * DancingLinks to be constructed directly.
+     */
+    public static ExactCoverSolver create(ExactCover ec)
+    {
+        if (ec == null) {
+            throw new IllegalArgumentException("ec must not be null");
+        }
+
+        if (!ec.hasColors() && ec.getNames().length <= MAX_BITSET_COLUMNS
+                && ec.getNumRows() <= MAX_BITSET_ROWS) {
+            return new BitsetAlgorithmX(ec);
+        }
+        return new DancingLinks(ec);
+    }
+}
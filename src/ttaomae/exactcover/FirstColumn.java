@@ -0,0 +1,70 @@
+package ttaomae.exactcover;
+
+/**
+ * Always chooses the first uncovered primary column, regardless of its size.
+ * This does the least work per node, but usually searches a far larger tree
+ * than {@link MinimumRemainingValues}.
+ */
+public class FirstColumn implements ColumnChooser
+{
+    /** A bit for each uncovered primary column. */
+    private long[] uncovered;
+
+    public FirstColumn()
+    {
+    }
+
+    private FirstColumn(FirstColumn other)
+    {
+        this.uncovered = (other.uncovered == null) ? null : other.uncovered.clone();
+    }
+
+    @Override
+    public void initialize(String[] names, int[] sizes, int[] degrees, int[] uncovered)
+    {
+        this.uncovered = new long[(names.length + 63) / 64];
+        for (int col : uncovered) {
+            this.uncovered[col >> 6] |= 1L << col;
+        }
+    }
+
+    @Override
+    public void covered(int column)
+    {
+        this.uncovered[column >> 6] &= ~(1L << column);
+    }
+
+    @Override
+    public void uncovered(int column)
+    {
+        this.uncovered[column >> 6] |= 1L << column;
+    }
+
+    @Override
+    public void sizeChanged(int column, int size)
+    {
+    }
+
+    @Override
+    public int choose()
+    {
+        for (int i = 0; i < this.uncovered.length; i++) {
+            if (this.uncovered[i] != 0) {
+                return (i << 6) + Long.numberOfTrailingZeros(this.uncovered[i]);
+            }
+        }
+        throw new IllegalStateException("every column is covered");
+    }
+
+    @Override
+    public ColumnChooser copy()
+    {
+        return new FirstColumn(this);
+    }
+
+    @Override
+    public String getName()
+    {
+        return "first column";
+    }
+}
@@ -0,0 +1,164 @@
+package ttaomae.exactcover;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Searches a DancingLinks while remembering the result below each node by
+ * the set of columns which are still uncovered. Since that set determines
+ * which rows remain, any later node which reaches the same set reuses the
+ * result instead of searching again. The rows must not have colors.
+ */
+final class MemoizedSearch
+{
+    private final DancingLinks dl;
+
+    MemoizedSearch(DancingLinks dl)
+    {
+        this.dl = dl;
+    }
+
+    /**
+     * Counts the solutions, remembering at most cacheSize counts. Once the
+     * cache is full, the least recently used count is evicted.
+     */
+    long count(final int cacheSize)
+    {
+        Map<ColumnSet, Long> cache = new LinkedHashMap<ColumnSet, Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ColumnSet, Long> eldest)
+            {
+                return size() > cacheSize;
+            }
+        };
+        return count(cache);
+    }
+
+    /**
+     * Adds the nodes of a diagram of every solution to the builder and
+     * returns its root.
+     */
+    int buildDiagram(SolutionDiagram.Builder builder)
+    {
+        return buildDiagram(builder, new HashMap<ColumnSet, Integer>());
+    }
+
+    /**
+     * Counts the solutions below the current node of the search, looking up
+     * and storing the count in the cache.
+     */
+    private long count(Map<ColumnSet, Long> cache)
+    {
+        DancingLinks dl = this.dl;
+        // no columns left -> found solution
+        if (dl.header.right == dl.header) {
+            return 1;
+        }
+
+        // look up with the live bits and only copy them when storing
+        Long cached = cache.get(new ColumnSet(dl.activeColumns));
+        if (cached != null) {
+            return cached;
+        }
+        ColumnSet key = new ColumnSet(dl.activeColumns.clone());
+
+        DancingLinks.ColumnNode c = dl.minColumn();
+        dl.cover(c);
+
+        long count = 0;
+        for (DancingLinks.Node r = c.down; r != c; r = r.down) {
+            for (DancingLinks.Node j = r.right; j != r; j = j.right) {
+                dl.cover(j.column);
+            }
+
+            count += count(cache);
+
+            for (DancingLinks.Node j = r.left; j != r; j = j.left) {
+                dl.uncover(j.column);
+            }
+        }
+
+        dl.uncover(c);
+
+        cache.put(key, count);
+        return count;
+    }
+
+    /**
+     * Builds the part of the diagram below the current node of the search
+     * and returns its root.
+     */
+    private int buildDiagram(SolutionDiagram.Builder builder, Map<ColumnSet, Integer> memo)
+    {
+        DancingLinks dl = this.dl;
+        // no columns left -> found solution
+        if (dl.header.right == dl.header) {
+            return SolutionDiagram.TOP;
+        }
+
+        Integer cached = memo.get(new ColumnSet(dl.activeColumns));
+        if (cached != null) {
+            return cached;
+        }
+        ColumnSet key = new ColumnSet(dl.activeColumns.clone());
+
+        DancingLinks.ColumnNode c = dl.minColumn();
+        dl.cover(c);
+
+        // every solution contains exactly one row of c, so the rows form a
+        // chain of lo children; go up the column so the chain is in order
+        int node = SolutionDiagram.BOTTOM;
+        for (DancingLinks.Node r = c.up; r != c; r = r.up) {
+            for (DancingLinks.Node j = r.right; j != r; j = j.right) {
+                dl.cover(j.column);
+            }
+
+            int hi = buildDiagram(builder, memo);
+
+            for (DancingLinks.Node j = r.left; j != r; j = j.left) {
+                dl.uncover(j.column);
+            }
+
+            node = builder.node(r.row, node, hi);
+        }
+
+        dl.uncover(c);
+
+        memo.put(key, node);
+        return node;
+    }
+
+    /**
+     * A set of uncovered columns, used as the key of a memoized result.
+     */
+    private static final class ColumnSet
+    {
+        private final long[] bits;
+        private final int hash;
+
+        public ColumnSet(long[] bits)
+        {
+            this.bits = bits;
+            this.hash = Arrays.hashCode(bits);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof ColumnSet)) {
+                return false;
+            }
+            return Arrays.equals(this.bits, ((ColumnSet) obj).bits);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package ttaomae.exactcover;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the counters of every thread of a solver. Each thread updates its
+ * own Counters without locking, so counting adds no contention to the
+ * parallel search. Counters are only summed when the metrics are read, and
+ * are added to the totals once their thread is done with them. Reads of
+ * counters which are still in use may be slightly behind.
+ */
+class MetricsRecorder implements SearchMetricsMXBean
+{
+    /** Branching factors from 0 to 31, and one bucket for anything larger. */
+    static final int BUCKETS = 33;
+
+    private final Set<Counters> live;
+    private final Totals retired;
+    /** The totals when the metrics were last reset. */
+    private Totals baseline;
+
+    MetricsRecorder()
+    {
+        this.live = Collections.newSetFromMap(new IdentityHashMap<Counters, Boolean>());
+        this.retired = new Totals();
+        this.baseline = new Totals();
+    }
+
+    synchronized Counters newCounters()
+    {
+        Counters counters = new Counters();
+        this.live.add(counters);
+        return counters;
+    }
+
+    synchronized void retire(Counters counters)
+    {
+        this.live.remove(counters);
+        this.retired.add(counters.snapshot(), 1);
+    }
+
+    synchronized SearchMetrics getMetrics()
+    {
+        Totals total = totals();
+        total.add(this.baseline, -1);
+
+        long[][] branching = new long[total.branching.length][];
+        for (int depth = 0; depth < branching.length; depth++) {
+            branching[depth] = (total.branching[depth] == null)
+                               ? new long[BUCKETS]
+                               : total.branching[depth];
+        }
+        return new SearchMetrics(total.nodes, total.mems, total.solutions, branching);
+    }
+
+    private Totals totals()
+    {
+        Totals total = new Totals();
+        total.add(this.retired, 1);
+        for (Counters counters : this.live) {
+            total.add(counters.snapshot(), 1);
+        }
+        return total;
+    }
+
+    @Override
+    public long getNodes()
+    {
+        return getMetrics().getNodes();
+    }
+
+    @Override
+    public long getMems()
+    {
+        return getMetrics().getMems();
+    }
+
+    @Override
+    public long getSolutions()
+    {
+        return getMetrics().getSolutions();
+    }
+
+    @Override
+    public long[][] getBranchingHistogram()
+    {
+        return getMetrics().getBranchingHistogram();
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        this.baseline = totals();
+    }
+
+    /**
+     * The counters of a single thread. Only that thread updates them, so each
+     * update is a read followed by an ordered write rather than an atomic
+     * increment, which is no more expensive than a plain write on most
+     * processors but still lets other threads read the counts safely.
+     */
+    static class Counters
+    {
+        /** Counters which ignore every update, used when metrics are disabled. */
+        static final Counters NONE = new Counters() {
+            @Override
+            void node()
+            {
+            }
+
+            @Override
+            void solution()
+            {
+            }
+
+            @Override
+            void mems(int updates)
+            {
+            }
+
+            @Override
+            void branch(int depth, int size)
+            {
+            }
+        };
+
+        private final AtomicLong nodes = new AtomicLong();
+        private final AtomicLong mems = new AtomicLong();
+        private final AtomicLong solutions = new AtomicLong();
+        /**
+         * Indexed by depth, then by branching factor. Rows are only added by
+         * replacing the whole array, so a reader always sees a complete array.
+         */
+        private volatile AtomicLongArray[] branching = new AtomicLongArray[0];
+
+        void node()
+        {
+            this.nodes.lazySet(this.nodes.get() + 1);
+        }
+
+        void solution()
+        {
+            this.solutions.lazySet(this.solutions.get() + 1);
+        }
+
+        void mems(int updates)
+        {
+            this.mems.lazySet(this.mems.get() + updates);
+        }
+
+        void branch(int depth, int size)
+        {
+            AtomicLongArray[] branching = this.branching;
+            if (depth >= branching.length || branching[depth] == null) {
+                int length = (depth < branching.length)
+                             ? branching.length
+                             : Math.max(depth + 1, 2 * branching.length);
+                branching = Arrays.copyOf(branching, length);
+                branching[depth] = new AtomicLongArray(BUCKETS);
+                this.branching = branching;
+            }
+
+            AtomicLongArray counts = branching[depth];
+            int bucket = Math.min(size, BUCKETS - 1);
+            counts.lazySet(bucket, counts.get(bucket) + 1);
+        }
+
+        /**
+         * Returns the current counts. Other threads may see counts which are
+         * slightly behind.
+         */
+        Totals snapshot()
+        {
+            Totals totals = new Totals();
+            totals.nodes = this.nodes.get();
+            totals.mems = this.mems.get();
+            totals.solutions = this.solutions.get();
+
+            AtomicLongArray[] branching = this.branching;
+            totals.branching = new long[branching.length][];
+            for (int depth = 0; depth < branching.length; depth++) {
+                if (branching[depth] != null) {
+                    long[] counts = new long[BUCKETS];
+                    for (int b = 0; b < BUCKETS; b++) {
+                        counts[b] = branching[depth].get(b);
+                    }
+                    totals.branching[depth] = counts;
+                }
+            }
+            return totals;
+        }
+    }
+
+    /**
+     * Counts which are only used by one thread at a time, such as a snapshot
+     * of counters or a sum of snapshots.
+     */
+    static final class Totals
+    {
+        private long nodes;
+        private long mems;
+        private long solutions;
+        /** Indexed by depth, then by branching factor; rows may be null. */
+        private long[][] branching = new long[0][];
+
+        /**
+         * Adds the other totals, multiplied by sign, to these totals.
+         */
+        void add(Totals other, int sign)
+        {
+            this.nodes += sign * other.nodes;
+            this.mems += sign * other.mems;
+            this.solutions += sign * other.solutions;
+
+            long[][] otherBranching = other.branching;
+            for (int depth = 0; depth < otherBranching.length; depth++) {
+                long[] counts = otherBranching[depth];
+                if (counts == null) {
+                    continue;
+                }
+                if (depth >= this.branching.length) {
+                    this.branching = Arrays.copyOf(this.branching, otherBranching.length);
+                }
+                if (this.branching[depth] == null) {
+                    this.branching[depth] = new long[BUCKETS];
+                }
+                for (int b = 0; b < BUCKETS; b++) {
+                    this.branching[depth][b] += sign * counts[b];
+                }
+            }
+        }
+    }
+}
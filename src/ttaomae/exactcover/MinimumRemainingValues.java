@@ -0,0 +1,301 @@
+package ttaomae.exactcover;
+
+import java.util.Arrays;
+
+/**
+ * Chooses an uncovered primary column with the fewest rows, like the
+ * default choice of DancingLinks, but without scanning every column. The
+ * uncovered columns are kept in a bucket queue, with a doubly linked list of
+ * columns for each size. Each update only moves one column between
+ * neighbouring lists, and a choice takes the first column of the smallest
+ * non-empty list, so both take constant time apart from skipping empty
+ * lists.
+ *
+ * Scanning takes time for every uncovered primary column at each node,
+ * while keeping the lists takes a little time for every link updated, so
+ * this only pays off when there are many more columns than rows removed at
+ * each node. A 25x25 sudoku, with 2500 columns of a few rows each, is
+ * searched about twice as fast as by scanning. The pentomino boards, whose
+ * piece columns remove hundreds of rows at each node, are searched about
+ * four times slower, and are better left to the default scan of their 72
+ * columns.
+ *
+ * Like the links of DancingLinks, columns are removed from their list
+ * without clearing their own links, so that they can be put back in the
+ * same place when the update is undone. Ties therefore do not go to the
+ * first column, but to the column which has had its current size the
+ * longest, which only depends on the rows covered since the chooser was
+ * initialized.
+ *
+ * A chooser can instead prefer columns whose names start with a prefix,
+ * which keeps a second list of preferred columns for each size, or columns
+ * whose rows contain the most other 1s, so that the choice removes as many
+ * rows as possible. Breaking ties by degree looks at every column of the
+ * smallest size, so it does not take constant time.
+ */
+public class MinimumRemainingValues implements ColumnChooser
+{
+    private static final int FIRST = 0;
+    private static final int PREFIX = 1;
+    private static final int DEGREE = 2;
+
+    private final int tieBreak;
+    private final String prefix;
+    /** The number of lists for each size. */
+    private final int listsPerSize;
+
+    private int nColumns;
+    private int[] sizes;
+    private int[] degrees;
+    /** Whether each column's name starts with the prefix. */
+    private boolean[] preferred;
+    /** Whether each column is in a list. */
+    private boolean[] uncovered;
+    /**
+     * The links of each column, followed by the head of each list. The
+     * lists of columns with a given size start at nColumns + size *
+     * listsPerSize, preferred columns first.
+     */
+    private int[] next;
+    private int[] prev;
+    /** The number of columns of each size in a list. */
+    private int[] counts;
+    /** No list below this has any columns. */
+    private int min;
+    /**
+     * The column and old links of each move to a smaller list which has not
+     * been undone yet, three entries per move.
+     */
+    private int[] moves;
+    private int nMoves;
+
+    /**
+     * Constructs a chooser which breaks ties by choosing the column which
+     * has had its size the longest.
+     */
+    public MinimumRemainingValues()
+    {
+        this(FIRST, null);
+    }
+
+    private MinimumRemainingValues(int tieBreak, String prefix)
+    {
+        this.tieBreak = tieBreak;
+        this.prefix = prefix;
+        this.listsPerSize = (tieBreak == PREFIX) ? 2 : 1;
+    }
+
+    private MinimumRemainingValues(MinimumRemainingValues other)
+    {
+        this.tieBreak = other.tieBreak;
+        this.prefix = other.prefix;
+        this.listsPerSize = other.listsPerSize;
+        if (other.sizes == null) {
+            return;
+        }
+
+        this.nColumns = other.nColumns;
+        this.sizes = other.sizes.clone();
+        this.degrees = other.degrees;
+        this.preferred = other.preferred;
+        this.uncovered = other.uncovered.clone();
+        this.next = other.next.clone();
+        this.prev = other.prev.clone();
+        this.counts = other.counts.clone();
+        this.min = other.min;
+        this.moves = Arrays.copyOf(other.moves, Math.max(other.nMoves, 48));
+        this.nMoves = other.nMoves;
+    }
+
+    /**
+     * Returns a chooser which breaks ties by choosing a column whose name
+     * starts with the prefix, if there is one.
+     */
+    public static MinimumRemainingValues preferringPrefix(String prefix)
+    {
+        if (prefix == null) {
+            throw new IllegalArgumentException("prefix must not be null");
+        }
+        return new MinimumRemainingValues(PREFIX, prefix);
+    }
+
+    /**
+     * Returns a chooser which breaks ties by choosing the column whose rows
+     * contain the most 1s in other columns.
+     */
+    public static MinimumRemainingValues preferringDegree()
+    {
+        return new MinimumRemainingValues(DEGREE, null);
+    }
+
+    @Override
+    public void initialize(String[] names, int[] sizes, int[] degrees, int[] uncovered)
+    {
+        this.nColumns = names.length;
+        this.sizes = sizes.clone();
+        this.degrees = degrees.clone();
+        this.preferred = new boolean[names.length];
+        if (this.prefix != null) {
+            for (int col = 0; col < names.length; col++) {
+                this.preferred[col] = names[col].startsWith(this.prefix);
+            }
+        }
+        this.uncovered = new boolean[names.length];
+
+        // sizes only go down from here and back
+        int maxSize = 0;
+        for (int size : sizes) {
+            maxSize = Math.max(maxSize, size);
+        }
+        int nNodes = this.nColumns + (maxSize + 1) * this.listsPerSize;
+        this.next = new int[nNodes];
+        this.prev = new int[nNodes];
+        for (int head = this.nColumns; head < nNodes; head++) {
+            this.next[head] = head;
+            this.prev[head] = head;
+        }
+        this.counts = new int[maxSize + 1];
+        this.min = maxSize + 1;
+        this.moves = new int[48];
+        this.nMoves = 0;
+
+        for (int col : uncovered) {
+            this.uncovered[col] = true;
+            insert(col, this.sizes[col]);
+        }
+    }
+
+    @Override
+    public void covered(int column)
+    {
+        this.uncovered[column] = false;
+        remove(column);
+        this.counts[this.sizes[column]]--;
+    }
+
+    @Override
+    public void uncovered(int column)
+    {
+        this.uncovered[column] = true;
+        restore(column);
+        this.counts[this.sizes[column]]++;
+        if (this.sizes[column] < this.min) {
+            this.min = this.sizes[column];
+        }
+    }
+
+    @Override
+    public void sizeChanged(int column, int size)
+    {
+        int oldSize = this.sizes[column];
+        this.sizes[column] = size;
+        if (!this.uncovered[column]) {
+            return;
+        }
+
+        remove(column);
+        this.counts[oldSize]--;
+        if (size < oldSize) {
+            // remember where the column was, to put it back when this is undone
+            if (this.nMoves == this.moves.length) {
+                this.moves = Arrays.copyOf(this.moves, 2 * this.moves.length);
+            }
+            this.moves[this.nMoves++] = column;
+            this.moves[this.nMoves++] = this.prev[column];
+            this.moves[this.nMoves++] = this.next[column];
+            insert(column, size);
+        }
+        else {
+            // updates are undone in the reverse order, so this undoes the
+            // last move to a smaller list
+            this.nMoves -= 3;
+            assert (this.moves[this.nMoves] == column);
+            this.prev[column] = this.moves[this.nMoves + 1];
+            this.next[column] = this.moves[this.nMoves + 2];
+            restore(column);
+            this.counts[size]++;
+        }
+    }
+
+    /**
+     * Adds a column to the end of its list for the specified size.
+     */
+    private void insert(int column, int size)
+    {
+        int head = this.nColumns + size * this.listsPerSize;
+        if (!this.preferred[column]) {
+            head += this.listsPerSize - 1;
+        }
+
+        this.prev[column] = this.prev[head];
+        this.next[column] = head;
+        restore(column);
+
+        this.counts[size]++;
+        if (size < this.min) {
+            this.min = size;
+        }
+    }
+
+    /**
+     * Removes a column from its list, leaving its own links in place.
+     */
+    private void remove(int column)
+    {
+        this.next[this.prev[column]] = this.next[column];
+        this.prev[this.next[column]] = this.prev[column];
+    }
+
+    /**
+     * Puts a column back between the columns its links point to.
+     */
+    private void restore(int column)
+    {
+        this.next[this.prev[column]] = column;
+        this.prev[this.next[column]] = column;
+    }
+
+    @Override
+    public int choose()
+    {
+        while (this.counts[this.min] == 0) {
+            this.min++;
+        }
+
+        int head = this.nColumns + this.min * this.listsPerSize;
+        switch (this.tieBreak) {
+            case PREFIX:
+                // the list of preferred columns comes first
+                return (this.next[head] != head) ? this.next[head] : this.next[head + 1];
+            case DEGREE:
+                int best = this.next[head];
+                for (int col = this.next[best]; col != head; col = this.next[col]) {
+                    if (this.degrees[col] > this.degrees[best]) {
+                        best = col;
+                    }
+                }
+                return best;
+            default:
+                return this.next[head];
+        }
+    }
+
+    @Override
+    public ColumnChooser copy()
+    {
+        return new MinimumRemainingValues(this);
+    }
+
+    @Override
+    public String getName()
+    {
+        switch (this.tieBreak) {
+            case PREFIX:
+                return "minimum remaining values preferring prefix " + this.prefix;
+            case DEGREE:
+                return "minimum remaining values preferring degree";
+            default:
+                return "minimum remaining values";
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package ttaomae.exactcover;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the searches of a DancingLinks which write checkpoints or report
+ * progress, and keeps the work left by the last checkpoint so that the next
+ * search resumes from it.
+ */
+final class MonitoredSearch
+{
+    private final DancingLinks dl;
+    /** The file checkpoints are written to, or null if they are disabled. */
+    private File checkpointFile;
+    private long checkpointInterval;
+    /**
+     * The name of the column chooser which wrote the last checkpoint, or
+     * null if the next search starts from the beginning.
+     */
+    private String resumeChooser;
+    /** The work left by the last checkpoint. */
+    private List<SearchMonitor.Position> resumeUnits;
+    /** The number of solutions found before the last checkpoint. */
+    private long resumeCount;
+    /** The share of the search tree explored before the last checkpoint. */
+    private double resumeDone;
+    /** Told the progress of each search, or null if it is not reported. */
+    private ProgressListener progressListener;
+    private long progressInterval;
+
+    MonitoredSearch(DancingLinks dl)
+    {
+        this.dl = dl;
+        resetResume();
+    }
+
+    /**
+     * Returns whether searches should be run by this instead of directly,
+     * because checkpoints or progress are enabled.
+     */
+    boolean isEnabled()
+    {
+        return this.checkpointFile != null || this.progressListener != null;
+    }
+
+    /**
+     * @see DancingLinks#setCheckpoint(File, long)
+     */
+    void setCheckpoint(File file, long interval) throws IOException,
+            DataFormatException
+    {
+        if (file != null && interval < 1) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+
+        this.checkpointFile = file;
+        this.checkpointInterval = interval;
+        resetResume();
+
+        if (file != null && file.exists() && file.length() > 0) {
+            readCheckpoint(file);
+        }
+    }
+
+    /**
+     * @see DancingLinks#setProgressListener(ProgressListener, long)
+     */
+    void setProgressListener(ProgressListener listener, long interval)
+    {
+        if (listener != null && interval < 1) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+
+        this.progressListener = listener;
+        this.progressInterval = interval;
+    }
+
+    private void readCheckpoint(File file) throws IOException,
+            DataFormatException
+    {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != SearchMonitor.CHECKPOINT_MAGIC) {
+                throw new DataFormatException("file is not a checkpoint");
+            }
+            if (in.readLong() != this.dl.fingerprint()) {
+                throw new DataFormatException("checkpoint is of a different problem");
+            }
+            String chooser = in.readUTF();
+            if (!chooser.equals(this.dl.getChooserName())) {
+                throw new DataFormatException(
+                        "checkpoint was written with a different column chooser");
+            }
+
+            long count = in.readLong();
+            double done = in.readDouble();
+            int nUnits = in.readInt();
+            if (count < 0 || nUnits < 0) {
+                throw new DataFormatException("invalid checkpoint");
+            }
+
+            List<SearchMonitor.Position> units = new ArrayList<>();
+            for (int i = 0; i < nUnits; i++) {
+                double weight = in.readDouble();
+                units.add(new SearchMonitor.Position(this.dl.readNodes(in),
+                        this.dl.readNodes(in), weight, 0, 0));
+            }
+
+            this.resumeChooser = chooser;
+            this.resumeUnits = units;
+            this.resumeCount = count;
+            this.resumeDone = done;
+        } catch (EOFException e) {
+            throw new DataFormatException("unexpected end of file");
+        }
+    }
+
+    /**
+     * Makes the next search start from the beginning.
+     */
+    private void resetResume()
+    {
+        this.resumeChooser = null;
+        this.resumeUnits = new ArrayList<>();
+        this.resumeUnits.add(new SearchMonitor.Position(new int[0], new int[0], 1, 0, 0));
+        this.resumeCount = 0;
+        this.resumeDone = 0;
+    }
+
+    /**
+     * Searches from the last checkpoint while writing checkpoints and
+     * reporting progress, if either is enabled. Each unit of remaining work
+     * is given to its own task.
+     */
+    long search(SolutionVisitor visitor, int nThreads, int depth)
+    {
+        // the chooser may have been changed since the checkpoint was read
+        String chooser = this.dl.getChooserName();
+        if (this.resumeChooser != null && !this.resumeChooser.equals(chooser)) {
+            throw new IllegalStateException(
+                    "checkpoint was written with a different column chooser");
+        }
+
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        final SearchMonitor monitor = new SearchMonitor(this.checkpointFile,
+                this.progressListener, this.dl.fingerprint(), chooser,
+                this.resumeCount, this.resumeDone);
+
+        final List<DancingLinks.SearchTask> tasks = new ArrayList<>();
+        for (SearchMonitor.Position unit : this.resumeUnits) {
+            DancingLinks.SearchTask task = this.dl.newTask(unit, visitor, depth,
+                    stopped, nThreads > 1, monitor);
+            monitor.register(task);
+            tasks.add(task);
+        }
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "search monitor");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        if (this.checkpointFile != null) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run()
+                {
+                    monitor.checkpoint();
+                }
+            }, this.checkpointInterval, this.checkpointInterval, TimeUnit.MILLISECONDS);
+        }
+        if (this.progressListener != null) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run()
+                {
+                    monitor.report();
+                }
+            }, this.progressInterval, this.progressInterval, TimeUnit.MILLISECONDS);
+        }
+
+        long count = this.resumeCount;
+        try {
+            if (nThreads == 1) {
+                for (DancingLinks.SearchTask task : tasks) {
+                    count += task.invoke();
+                }
+            }
+            else {
+                ForkJoinPool pool = new ForkJoinPool(nThreads);
+                try {
+                    count += pool.invoke(new RecursiveTask<Long>() {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        protected Long compute()
+                        {
+                            for (DancingLinks.SearchTask task : tasks) {
+                                task.fork();
+                            }
+                            long count = 0;
+                            for (int i = tasks.size() - 1; i >= 0; i--) {
+                                count += tasks.get(i).join();
+                            }
+                            return count;
+                        }
+                    });
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        } finally {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (this.checkpointFile == null) {
+            return count;
+        }
+
+        try {
+            if (stopped.get()) {
+                // keep what is left for the next search
+                monitor.write();
+                readCheckpoint(this.checkpointFile);
+            }
+            else {
+                Files.deleteIfExists(this.checkpointFile.toPath());
+                resetResume();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        }
+        monitor.rethrow();
+
+        return count;
+    }
+}
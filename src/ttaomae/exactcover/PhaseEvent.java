@@ -0,0 +1,36 @@
+package ttaomae.exactcover;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for a phase of setting up a search, such as
+ * building an exact cover or the links of a solver. Call begin() when the
+ * phase starts and commit() when it ends; both do almost nothing unless a
+ * recording is enabled for this event.
+ */
+@Name("ttaomae.exactcover.Phase")
+@Label("Solver Phase")
+@Category("Exact Cover")
+@Description("A phase of setting up a search")
+public final class PhaseEvent extends Event
+{
+    @Label("Phase")
+    String phase;
+
+    @Label("Rows")
+    @Description("The number of rows of the exact cover, or 0 if not recorded")
+    int rows;
+
+    @Label("Columns")
+    @Description("The number of columns of the exact cover, or 0 if not recorded")
+    int columns;
+
+    public PhaseEvent(String phase)
+    {
+        this.phase = phase;
+    }
+}
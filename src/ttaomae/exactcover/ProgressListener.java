@@ -0,0 +1,16 @@
+package ttaomae.exactcover;
+
+/**
+ * Receives the progress of a search periodically while it runs.
+ *
+ * The listener is called from a separate thread from the search.
+ */
+public interface ProgressListener
+{
+    /**
+     * Called once for each progress report.
+     *
+     * @param progress
+     */
+    void progress(SearchProgress progress);
+}
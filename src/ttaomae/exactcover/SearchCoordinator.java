@@ -0,0 +1,461 @@
+package ttaomae.exactcover;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Shares a search between worker processes over sockets. The search tree is
+ * divided into units at a fixed depth, and each {@link SearchWorker} which
+ * connects is sent the problem and then one unit at a time. Workers report
+ * the solutions and number of solutions of each unit back to the
+ * coordinator.
+ *
+ * A worker which disconnects, or sends nothing for longer than the timeout,
+ * is assumed to have died, and its current unit is given to another worker.
+ * The solutions of a unit are only passed on once the whole unit is done,
+ * so none are seen twice. The search waits for workers as long as there are
+ * units left, so workers can be started before or during the search.
+ *
+ * A coordinator runs a single search, and stops listening for workers once
+ * it is done.
+ */
+public class SearchCoordinator implements Closeable
+{
+    static final int MAGIC = 0x444C4B57;
+
+    /** Sent to a worker with a unit to search. */
+    static final int UNIT = 1;
+    /** Sent to a worker once every unit is done. */
+    static final int DONE = 2;
+    /** Sent by a worker for each solution of its unit. */
+    static final int SOLUTION = 3;
+    /** Sent by a worker once its unit is done. */
+    static final int RESULT = 4;
+    /** Sent by a worker while searching, to show that it is still alive. */
+    static final int HEARTBEAT = 5;
+
+    private static final long DEFAULT_TIMEOUT = 30000;
+
+    private final ExactCover ec;
+    private final String[] names;
+    private final DancingLinks dl;
+    private final int depth;
+    private final ServerSocket server;
+    private long timeout;
+
+    // everything below is guarded by this
+    private final Deque<int[]> pending;
+    private final Set<Socket> connections;
+    private boolean started;
+    private int remaining;
+    private long count;
+    private boolean stopped;
+    private SolutionVisitor visitor;
+
+    /**
+     * Constructs a coordinator which listens for workers on the specified
+     * port of every local address.
+     *
+     * @param ec the problem to search
+     * @param depth the depth of the search tree at which to divide it into
+     *        units
+     * @param port the port to listen on, or 0 for any free port
+     */
+    public SearchCoordinator(ExactCover ec, int depth, int port) throws IOException
+    {
+        this(ec, depth, port, null);
+    }
+
+    /**
+     * Constructs a coordinator which listens for workers on the specified
+     * port and address, such as the loopback address to only accept workers
+     * on this machine.
+     *
+     * @param address the local address to listen on, or null for every
+     *        local address
+     */
+    public SearchCoordinator(ExactCover ec, int depth, int port, InetAddress address)
+            throws IOException
+    {
+        if (ec == null) {
+            throw new IllegalArgumentException("ec must not be null");
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must be non-negative");
+        }
+
+        this.ec = ec;
+        this.names = ec.getNames();
+        this.dl = new DancingLinks(ec);
+        this.depth = depth;
+        this.server = new ServerSocket(port, 50, address);
+        this.timeout = DEFAULT_TIMEOUT;
+
+        this.pending = new ArrayDeque<>();
+        this.connections = new HashSet<>();
+    }
+
+    /**
+     * Returns the port which workers should connect to.
+     */
+    public int getPort()
+    {
+        return this.server.getLocalPort();
+    }
+
+    /**
+     * Sets how long a worker may go without sending anything before it is
+     * assumed to have died. Workers send a heartbeat three times in this
+     * interval while searching.
+     */
+    public void setTimeout(long millis)
+    {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        this.timeout = millis;
+    }
+
+    /**
+     * Counts every solution, waiting until every unit is done.
+     */
+    public long countSolutions() throws InterruptedException
+    {
+        return search(null);
+    }
+
+    /**
+     * Finds every solution, passing each one to the visitor. The visitor is
+     * only called by one thread at a time. If it returns false, the search
+     * stops and the connections to every worker are closed.
+     */
+    public void solve(SolutionVisitor visitor) throws InterruptedException
+    {
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor must not be null");
+        }
+
+        search(visitor);
+    }
+
+    private long search(SolutionVisitor visitor) throws InterruptedException
+    {
+        synchronized (this) {
+            if (this.started || this.server.isClosed()) {
+                throw new IllegalStateException("coordinator has already been used");
+            }
+            this.started = true;
+
+            this.pending.addAll(new SearchUnits(this.dl).create(this.depth));
+            this.remaining = this.pending.size();
+            this.visitor = visitor;
+        }
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                accept();
+            }
+        }, "search coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        try {
+            synchronized (this) {
+                while (this.remaining > 0 && !this.stopped) {
+                    wait();
+                }
+                return this.count;
+            }
+        } finally {
+            // workers which are waiting for a unit are told that the search
+            // is done, unless it stopped early
+            close();
+            acceptor.join();
+        }
+    }
+
+    /**
+     * Stops listening for workers. If a search is running, it is stopped and
+     * the connections to every worker are closed.
+     */
+    @Override
+    public void close()
+    {
+        try {
+            this.server.close();
+        } catch (IOException e) {
+            // nothing left to clean up
+        }
+
+        synchronized (this) {
+            if (this.remaining > 0) {
+                this.stopped = true;
+            }
+            if (this.stopped) {
+                for (Socket socket : this.connections) {
+                    closeQuietly(socket);
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    private void accept()
+    {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = this.server.accept();
+            } catch (IOException e) {
+                // the server was closed
+                return;
+            }
+
+            synchronized (this) {
+                if (this.stopped) {
+                    closeQuietly(socket);
+                    continue;
+                }
+                this.connections.add(socket);
+            }
+
+            Thread handler = new Thread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    serve(socket);
+                }
+            }, "search coordinator " + socket.getRemoteSocketAddress());
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    /**
+     * Gives units to a worker until every unit is done, or until the worker
+     * dies, in which case its current unit is given to another worker.
+     */
+    private void serve(Socket socket)
+    {
+        int[] unit = null;
+        try {
+            socket.setSoTimeout((int) Math.min(this.timeout, Integer.MAX_VALUE));
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+
+            if (in.readInt() != MAGIC) {
+                throw new DataFormatException("not a search worker");
+            }
+            writeProblem(out);
+
+            int id = 0;
+            while ((unit = takeUnit()) != null) {
+                out.writeByte(UNIT);
+                out.writeInt(id);
+                writeNodes(out, unit);
+                out.flush();
+
+                List<Solution> solutions = new ArrayList<>();
+                long result = readResult(in, id, solutions);
+                completeUnit(result, solutions);
+                unit = null;
+                id++;
+            }
+
+            out.writeByte(DONE);
+            out.flush();
+        } catch (IOException | DataFormatException e) {
+            // the worker died or misbehaved
+        } finally {
+            synchronized (this) {
+                if (unit != null) {
+                    this.pending.addFirst(unit);
+                    notifyAll();
+                }
+                this.connections.remove(socket);
+            }
+            closeQuietly(socket);
+        }
+    }
+
+    private void writeProblem(DataOutputStream out) throws IOException
+    {
+        String[] names = this.names;
+        int[] offsets = this.ec.getOffsetArray();
+        int[] columns = this.ec.getColumnArray();
+        int[][] colors = this.ec.getRowColors();
+
+        out.writeBoolean(this.visitor != null);
+        out.writeLong(this.timeout / 3);
+
+        out.writeInt(names.length);
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+        out.writeInt(this.ec.getNumPrimaryColumns());
+
+        // each row is written as its length and columns, like a unit
+        out.writeInt(offsets.length - 1);
+        for (int r = 0; r + 1 < offsets.length; r++) {
+            out.writeInt(offsets[r + 1] - offsets[r]);
+            for (int i = offsets[r]; i < offsets[r + 1]; i++) {
+                out.writeInt(columns[i]);
+            }
+        }
+        out.writeBoolean(colors != null);
+        if (colors != null) {
+            for (int[] rowColors : colors) {
+                writeNodes(out, rowColors);
+            }
+        }
+
+        // the worker must build the same nodes for units to mean the same
+        out.writeLong(this.dl.fingerprint());
+        out.flush();
+    }
+
+    /**
+     * Reads messages from a worker until the result of the current unit.
+     *
+     * @return the number of solutions of the unit
+     */
+    private long readResult(DataInputStream in, int id, List<Solution> solutions)
+            throws IOException, DataFormatException
+    {
+        try {
+            while (true) {
+                int message = in.readByte();
+                switch (message) {
+                    case HEARTBEAT:
+                        break;
+                    case SOLUTION:
+                        solutions.add(readSolution(in, this.names));
+                        break;
+                    case RESULT:
+                        if (in.readInt() != id) {
+                            throw new DataFormatException("result of the wrong unit");
+                        }
+                        long result = in.readLong();
+                        if (result < 0) {
+                            throw new DataFormatException("negative count: " + result);
+                        }
+                        return result;
+                    default:
+                        throw new DataFormatException("unknown message: " + message);
+                }
+            }
+        } catch (EOFException e) {
+            throw new DataFormatException("unexpected end of stream");
+        }
+    }
+
+    private static Solution readSolution(DataInputStream in, String[] names)
+            throws IOException, DataFormatException
+    {
+        int nRows = readCount(in, names.length);
+        boolean hasColors = in.readBoolean();
+        List<int[]> rows = new ArrayList<>();
+        List<int[]> colors = hasColors ? new ArrayList<int[]>() : null;
+        for (int i = 0; i < nRows; i++) {
+            int[] row = new int[readCount(in, names.length)];
+            for (int j = 0; j < row.length; j++) {
+                row[j] = in.readInt();
+                if (row[j] < 0 || row[j] >= names.length) {
+                    throw new DataFormatException("invalid column: " + row[j]);
+                }
+            }
+            rows.add(row);
+
+            if (hasColors) {
+                int[] rowColors = new int[row.length];
+                for (int j = 0; j < rowColors.length; j++) {
+                    rowColors[j] = in.readInt();
+                }
+                colors.add(rowColors);
+            }
+        }
+        return new Solution(names, rows, colors);
+    }
+
+    private static int readCount(DataInputStream in, int bound) throws IOException,
+            DataFormatException
+    {
+        int count = in.readInt();
+        if (count < 0 || count > bound) {
+            throw new DataFormatException("invalid count: " + count);
+        }
+        return count;
+    }
+
+    static void writeNodes(DataOutputStream out, int[] nodes) throws IOException
+    {
+        out.writeInt(nodes.length);
+        for (int n : nodes) {
+            out.writeInt(n);
+        }
+    }
+
+    /**
+     * Returns the next unit to search, waiting if every remaining unit is
+     * being searched by another worker, or null once every unit is done.
+     */
+    private synchronized int[] takeUnit() throws InterruptedIOException
+    {
+        while (this.pending.isEmpty() && this.remaining > 0 && !this.stopped) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+        return (this.remaining == 0 || this.stopped) ? null : this.pending.removeFirst();
+    }
+
+    private synchronized void completeUnit(long result, List<Solution> solutions)
+    {
+        if (this.stopped) {
+            return;
+        }
+
+        this.count += result;
+        if (this.visitor != null) {
+            for (Solution solution : solutions) {
+                if (!this.visitor.visit(solution)) {
+                    this.stopped = true;
+                    break;
+                }
+            }
+        }
+        this.remaining--;
+        notifyAll();
+    }
+
+    private static void closeQuietly(Socket socket)
+    {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing left to clean up
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package ttaomae.exactcover;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for a whole search, from the first task until the
+ * last one finishes.
+ */
+@Name("ttaomae.exactcover.Search")
+@Label("Search")
+@Category("Exact Cover")
+@Description("A complete search for solutions")
+class SearchEvent extends Event
+{
+    @Label("Threads")
+    int threads;
+
+    @Label("Depth Limit")
+    @Description("The deepest level at which branches may be given to other tasks, or 0 if there is no limit")
+    int depth;
+
+    @Label("Solutions")
+    long solutions;
+
+    /**
+     * Ends the search and records it, if this event is enabled.
+     */
+    void commit(int threads, int depth, long solutions)
+    {
+        if (shouldCommit()) {
+            this.threads = threads;
+            this.depth = depth;
+            this.solutions = solutions;
+            commit();
+        }
+    }
+}
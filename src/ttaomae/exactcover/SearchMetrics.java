@@ -0,0 +1,74 @@
+package ttaomae.exactcover;
+
+/**
+ * A snapshot of the metrics of a solver's searches.
+ */
+public class SearchMetrics
+{
+    private final long nodes;
+    private final long mems;
+    private final long solutions;
+    private final long[][] branching;
+
+    SearchMetrics(long nodes, long mems, long solutions, long[][] branching)
+    {
+        this.nodes = nodes;
+        this.mems = mems;
+        this.solutions = solutions;
+        this.branching = branching;
+    }
+
+    /** Returns the number of nodes of the search tree visited. */
+    public long getNodes()
+    {
+        return this.nodes;
+    }
+
+    /** Returns the number of links updated while covering and uncovering. */
+    public long getMems()
+    {
+        return this.mems;
+    }
+
+    /** Returns the number of solutions found. */
+    public long getSolutions()
+    {
+        return this.solutions;
+    }
+
+    /**
+     * Returns the number of times each branching factor was seen at each
+     * depth, indexed by depth and then branching factor. The last entry at
+     * each depth counts every larger branching factor.
+     */
+    public long[][] getBranchingHistogram()
+    {
+        long[][] result = new long[this.branching.length][];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = this.branching[i].clone();
+        }
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("nodes: %d, mems: %d, solutions: %d",
+                this.nodes, this.mems, this.solutions));
+
+        // one line per depth, listing only the branching factors seen
+        for (int depth = 0; depth < this.branching.length; depth++) {
+            sb.append(String.format("%ndepth %d:", depth));
+            long[] counts = this.branching[depth];
+            for (int b = 0; b < counts.length; b++) {
+                if (counts[b] != 0) {
+                    String factor = (b == counts.length - 1) ? b + "+" : String.valueOf(b);
+                    sb.append(String.format(" %s=%d", factor, counts[b]));
+                }
+            }
+        }
+
+        return sb.toString();
+    }
+}
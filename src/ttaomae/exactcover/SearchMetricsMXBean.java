@@ -0,0 +1,26 @@
+package ttaomae.exactcover;
+
+/**
+ * The metrics of a solver's searches, for monitoring over JMX.
+ */
+public interface SearchMetricsMXBean
+{
+    /** Returns the number of nodes of the search tree visited. */
+    long getNodes();
+
+    /** Returns the number of links updated while covering and uncovering. */
+    long getMems();
+
+    /** Returns the number of solutions found. */
+    long getSolutions();
+
+    /**
+     * Returns the number of times each branching factor was seen at each
+     * depth, indexed by depth and then branching factor. The last entry at
+     * each depth counts every larger branching factor.
+     */
+    long[][] getBranchingHistogram();
+
+    /** Starts the metrics from zero. */
+    void reset();
+}
@@ -0,0 +1,198 @@
+package ttaomae.exactcover;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of every unfinished task of a search, to write checkpoints
+ * and report progress. Tasks are registered before they run and removed
+ * when their own search finishes, at which point their solutions and the
+ * share of the tree they explored are added to the totals.
+ */
+class SearchMonitor
+{
+    static final int CHECKPOINT_MAGIC = 0x444C4B32;
+
+    /**
+     * A monitor which ignores every task, used when neither checkpoints nor
+     * progress are enabled. Its epoch never changes, so tasks never publish
+     * their position.
+     */
+    static final SearchMonitor NONE = new SearchMonitor(null, null, 0, null, 0, 0) {
+        @Override
+        void register(DancingLinks.SearchTask task)
+        {
+        }
+
+        @Override
+        void finish(DancingLinks.SearchTask task)
+        {
+        }
+    };
+
+    /** The checkpoint file, or null if checkpoints are disabled. */
+    private final File file;
+    /** Told the progress of the search, or null. */
+    private final ProgressListener listener;
+    /** Identifies the problem in the checkpoint. */
+    private final long fingerprint;
+    /** The name of the column chooser, written to the checkpoint. */
+    private final String chooser;
+    private final Set<DancingLinks.SearchTask> tasks;
+    /** The number of solutions found by finished tasks. */
+    private long finished;
+    /** The share of the search tree explored by finished tasks. */
+    private double finishedDone;
+    /** The share of the search tree explored before this search. */
+    private final double startDone;
+    private final long startTime;
+    /** Incremented periodically, asking tasks to publish their position. */
+    volatile int epoch;
+    private IOException error;
+
+    SearchMonitor(File file, ProgressListener listener, long fingerprint,
+                  String chooser, long finished, double finishedDone)
+    {
+        this.file = file;
+        this.listener = listener;
+        this.fingerprint = fingerprint;
+        this.chooser = chooser;
+        this.tasks = new LinkedHashSet<>();
+        this.finished = finished;
+        this.finishedDone = finishedDone;
+        this.startDone = finishedDone;
+        this.startTime = System.nanoTime();
+    }
+
+    synchronized void register(DancingLinks.SearchTask task)
+    {
+        this.tasks.add(task);
+    }
+
+    synchronized void finish(DancingLinks.SearchTask task)
+    {
+        this.tasks.remove(task);
+        this.finished += task.found;
+        this.finishedDone += task.done;
+    }
+
+    void checkpoint()
+    {
+        try {
+            write();
+        } catch (IOException e) {
+            synchronized (this) {
+                if (this.error == null) {
+                    this.error = e;
+                }
+            }
+        }
+        this.epoch++;
+    }
+
+    void report()
+    {
+        long solutions;
+        double done;
+        synchronized (this) {
+            solutions = this.finished;
+            done = this.finishedDone;
+            for (DancingLinks.SearchTask task : this.tasks) {
+                Position position = task.position;
+                solutions += position.found;
+                done += position.done;
+            }
+        }
+        this.epoch++;
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startTime);
+        this.listener.progress(new SearchProgress(Math.min(done, 1.0),
+                this.startDone, elapsed, solutions));
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file, then moves it over the
+     * checkpoint file so a crash never leaves a partial checkpoint.
+     */
+    synchronized void write() throws IOException
+    {
+        long count = this.finished;
+        double done = this.finishedDone;
+        List<Position> positions = new ArrayList<>();
+        for (DancingLinks.SearchTask task : this.tasks) {
+            Position position = task.position;
+            count += position.found;
+            done += position.done;
+            positions.add(position);
+        }
+
+        File temp = new File(this.file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeLong(this.fingerprint);
+            out.writeUTF(this.chooser);
+            out.writeLong(count);
+            out.writeDouble(done);
+            out.writeInt(positions.size());
+            for (Position position : positions) {
+                out.writeDouble(position.weight);
+                writeNodes(out, position.prefix);
+                writeNodes(out, position.resume);
+            }
+        }
+        Files.move(temp.toPath(), this.file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeNodes(DataOutputStream out, int[] nodes) throws IOException
+    {
+        out.writeInt(nodes.length);
+        for (int n : nodes) {
+            out.writeInt(n);
+        }
+    }
+
+    synchronized void rethrow()
+    {
+        if (this.error != null) {
+            throw new UncheckedIOException(this.error);
+        }
+    }
+
+    /**
+     * The remaining work of a task: the rows to cover before searching, the
+     * rows to resume from and the share of the search tree below the
+     * covered rows. Also the number of solutions found and the share of the
+     * search tree explored by the task before reaching that point.
+     */
+    static final class Position
+    {
+        final int[] prefix;
+        final int[] resume;
+        final double weight;
+        final long found;
+        final double done;
+
+        Position(int[] prefix, int[] resume, double weight, long found, double done)
+        {
+            this.prefix = prefix;
+            this.resume = resume;
+            this.weight = weight;
+            this.found = found;
+            this.done = done;
+        }
+    }
+}
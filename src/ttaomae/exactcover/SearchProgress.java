@@ -0,0 +1,71 @@
+package ttaomae.exactcover;
+
+/**
+ * The progress of a search at some point in time.
+ */
+public class SearchProgress
+{
+    private final double fraction;
+    private final double startFraction;
+    private final long elapsed;
+    private final long solutions;
+
+    /**
+     * @param fraction the fraction of the search tree explored
+     * @param startFraction the fraction explored before this search started,
+     *            if it resumed from a checkpoint
+     * @param elapsed the number of milliseconds since this search started
+     * @param solutions the number of solutions found
+     */
+    SearchProgress(double fraction, double startFraction, long elapsed, long solutions)
+    {
+        this.fraction = fraction;
+        this.startFraction = startFraction;
+        this.elapsed = elapsed;
+        this.solutions = solutions;
+    }
+
+    /**
+     * Returns the fraction of the search tree explored, where each node is
+     * divided equally between its branches.
+     */
+    public double getFraction()
+    {
+        return this.fraction;
+    }
+
+    public long getElapsedMillis()
+    {
+        return this.elapsed;
+    }
+
+    /**
+     * Returns the number of solutions found, including any found before
+     * resuming from a checkpoint.
+     */
+    public long getSolutions()
+    {
+        return this.solutions;
+    }
+
+    /**
+     * Returns an estimate of the number of milliseconds until the search
+     * finishes, assuming the rest of the tree is explored at the same rate,
+     * or -1 if nothing has been explored yet.
+     */
+    public long getRemainingMillis()
+    {
+        double explored = this.fraction - this.startFraction;
+        if (explored <= 0) {
+            return -1;
+        }
+        return (long) (this.elapsed * (1 - this.fraction) / explored);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%.2f%% explored, %d solutions, %d ms elapsed, %d ms remaining",
+                100 * this.fraction, this.solutions, this.elapsed, getRemainingMillis());
+    }
+}
@@ -0,0 +1,34 @@
+package ttaomae.exactcover;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for the work done by one task of a parallel
+ * search. The duration does not include waiting for its subtasks, so the
+ * events of a recording show how evenly the work was shared.
+ */
+@Name("ttaomae.exactcover.SearchTask")
+@Label("Search Task")
+@Category("Exact Cover")
+@Description("The subtree searched by one task of a parallel search")
+class SearchTaskEvent extends Event
+{
+    @Label("Prefix Size")
+    @Description("The number of rows covered before the task started searching")
+    int prefixSize;
+
+    @Label("Depth Limit")
+    @Description("The deepest level at which branches may be given to other tasks, or 0 if there is no limit")
+    int depth;
+
+    @Label("Solutions")
+    @Description("The number of solutions found by this task, not including its subtasks")
+    long solutions;
+
+    @Label("Subtasks")
+    int subtasks;
+}
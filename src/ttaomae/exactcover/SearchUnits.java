@@ -0,0 +1,92 @@
+package ttaomae.exactcover;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Divides the search of a DancingLinks into units of work and searches
+ * them, so that a {@link SearchCoordinator} can share a search between
+ * {@link SearchWorker}s. Each unit is the indices of the nodes of the rows
+ * of a partial solution, which mean the same rows in any DancingLinks built
+ * from the same problem.
+ */
+final class SearchUnits
+{
+    private final DancingLinks dl;
+
+    SearchUnits(DancingLinks dl)
+    {
+        this.dl = dl;
+    }
+
+    /**
+     * Divides the search into units of work, one for each node of the search
+     * tree at the specified depth and each solution found before reaching
+     * it.
+     */
+    List<int[]> create(int depth)
+    {
+        List<int[]> units = new ArrayList<>();
+        create(depth, new ArrayList<DancingLinks.Node>(), units);
+        return units;
+    }
+
+    private void create(int depth, List<DancingLinks.Node> partialSolution,
+                        List<int[]> units)
+    {
+        DancingLinks dl = this.dl;
+        if (partialSolution.size() == depth || dl.header.right == dl.header) {
+            int[] unit = new int[partialSolution.size()];
+            for (int i = 0; i < unit.length; i++) {
+                unit[i] = partialSolution.get(i).index;
+            }
+            units.add(unit);
+            return;
+        }
+
+        // the rows of c stay linked to c while one of them is covered
+        DancingLinks.ColumnNode c = dl.minColumn();
+        for (DancingLinks.Node r = c.down; r != c; r = r.down) {
+            dl.coverRow(r);
+            partialSolution.add(r);
+            create(depth, partialSolution, units);
+            partialSolution.remove(partialSolution.size() - 1);
+            dl.uncoverRow(r);
+        }
+    }
+
+    /**
+     * Reads a unit which was written as its length followed by its nodes.
+     */
+    int[] read(DataInputStream in) throws IOException, DataFormatException
+    {
+        return this.dl.readNodes(in);
+    }
+
+    /**
+     * Searches the subtree below a unit created by {@link #create(int)}.
+     * Solutions passed to the visitor include the rows of the unit.
+     *
+     * @return the number of solutions found
+     */
+    long search(int[] unit, SolutionVisitor visitor, int nThreads)
+    {
+        DancingLinks.SearchTask task = this.dl.newTask(
+                new SearchMonitor.Position(unit, new int[0], 1, 0, 0), visitor, 0,
+                new AtomicBoolean(false), nThreads > 1, SearchMonitor.NONE);
+        if (nThreads == 1) {
+            return task.invoke();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            return pool.invoke(task);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package ttaomae.exactcover;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches units of work given by a {@link SearchCoordinator}. A worker
+ * connects to the coordinator, receives the problem and then searches one
+ * unit at a time until the coordinator has no units left.
+ */
+public class SearchWorker
+{
+    private final String host;
+    private final int port;
+    private final int nThreads;
+
+    /**
+     * @param host the host of the coordinator
+     * @param port the port of the coordinator
+     * @param nThreads the number of threads to search each unit with
+     */
+    public SearchWorker(String host, int port, int nThreads)
+    {
+        if (host == null) {
+            throw new IllegalArgumentException("host must not be null");
+        }
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("nThreads must be positive");
+        }
+
+        this.host = host;
+        this.port = port;
+        this.nThreads = nThreads;
+    }
+
+    public static void main(String[] args) throws IOException, DataFormatException
+    {
+        // default values
+        String host = "localhost";
+        int port = 0;
+        int nThreads = 1;
+
+        // parse arguments
+        if (args.length == 1 || args.length == 2 || args.length == 3) {
+            try {
+                port = Integer.parseInt(args[0]);
+                if (args.length >= 2) {
+                    nThreads = Integer.parseInt(args[1]);
+                }
+            } catch (NumberFormatException e) {
+                printUsage();
+                System.exit(1);
+            }
+
+            if (args.length == 3) {
+                host = args[2];
+            }
+        }
+        else {
+            printUsage();
+            System.exit(1);
+        }
+
+        new SearchWorker(host, port, nThreads).run();
+    }
+
+    private static void printUsage()
+    {
+        System.err.println("Usage options:");
+        System.err.printf("\tjava %s <port>%n", SearchWorker.class.getName());
+        System.err.printf("\tjava %s <port> <nThreads>%n", SearchWorker.class.getName());
+        System.err.printf("\tjava %s <port> <nThreads> <host>%n", SearchWorker.class.getName());
+    }
+
+    /**
+     * Connects to the coordinator and searches units until there are none
+     * left.
+     *
+     * @throws DataFormatException if the coordinator sends something invalid
+     */
+    public void run() throws IOException, DataFormatException
+    {
+        try (Socket socket = new Socket(this.host, this.port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+
+            out.writeInt(SearchCoordinator.MAGIC);
+            out.flush();
+
+            boolean sendSolutions = in.readBoolean();
+            long heartbeat = in.readLong();
+            DancingLinks dl = new DancingLinks(readProblem(in));
+            if (in.readLong() != dl.fingerprint()) {
+                throw new DataFormatException("problem was not received correctly");
+            }
+            SearchUnits units = new SearchUnits(dl);
+
+            // let the coordinator know this worker is alive during long units
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread thread = new Thread(r, "search worker heartbeat");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        synchronized (out) {
+                            out.writeByte(SearchCoordinator.HEARTBEAT);
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        // the next result will fail to send as well
+                    }
+                }
+            }, heartbeat, Math.max(heartbeat, 1), TimeUnit.MILLISECONDS);
+
+            try {
+                while (true) {
+                    int message = in.readByte();
+                    if (message == SearchCoordinator.DONE) {
+                        return;
+                    }
+                    if (message != SearchCoordinator.UNIT) {
+                        throw new DataFormatException("unknown message: " + message);
+                    }
+
+                    int id = in.readInt();
+                    int[] unit = units.read(in);
+                    long count = units.search(unit,
+                            sendSolutions ? new Sender(out) : null, this.nThreads);
+                    synchronized (out) {
+                        out.writeByte(SearchCoordinator.RESULT);
+                        out.writeInt(id);
+                        out.writeLong(count);
+                        out.flush();
+                    }
+                }
+            } catch (EOFException e) {
+                throw new DataFormatException("unexpected end of stream");
+            } finally {
+                scheduler.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Reads the problem as it is written by the coordinator, up to its
+     * fingerprint.
+     */
+    static ExactCover readProblem(DataInputStream in) throws IOException,
+            DataFormatException
+    {
+        String[] names = new String[readCount(in)];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+        }
+        int nPrimary = in.readInt();
+        if (nPrimary < 0 || nPrimary > names.length) {
+            throw new DataFormatException("invalid number of primary columns: " + nPrimary);
+        }
+
+        int nRows = readCount(in);
+        int[] offsets = new int[nRows + 1];
+        int[] columns = new int[0];
+        for (int i = 0; i < nRows; i++) {
+            int length = readCount(in);
+            if (length > names.length) {
+                throw new DataFormatException("invalid count: " + length);
+            }
+            offsets[i + 1] = offsets[i] + length;
+            if (offsets[i + 1] > columns.length) {
+                columns = Arrays.copyOf(columns, Math.max(columns.length * 2, offsets[i + 1]));
+            }
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                columns[j] = in.readInt();
+                if (columns[j] < 0 || columns[j] >= names.length) {
+                    throw new DataFormatException("invalid column: " + columns[j]);
+                }
+            }
+        }
+
+        try {
+            if (!in.readBoolean()) {
+                // the rows are kept in the order they were sent
+                return new ExactCover(names, nPrimary, offsets, columns, false);
+            }
+
+            List<int[]> colors = new ArrayList<>();
+            for (int i = 0; i < nRows; i++) {
+                int[] rowColors = new int[readCount(in)];
+                for (int j = 0; j < rowColors.length; j++) {
+                    rowColors[j] = in.readInt();
+                }
+                colors.add(rowColors);
+            }
+            List<BitSet> rows = new ArrayList<>();
+            for (int i = 0; i < nRows; i++) {
+                BitSet row = new BitSet();
+                for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                    row.set(columns[j]);
+                }
+                rows.add(row);
+            }
+            return new ExactCover(names, nPrimary, rows, colors);
+        } catch (IllegalArgumentException e) {
+            throw new DataFormatException(e.getMessage());
+        }
+    }
+
+    private static int readCount(DataInputStream in) throws IOException,
+            DataFormatException
+    {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new DataFormatException("negative count: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Sends each solution to the coordinator.
+     */
+    private static class Sender implements SolutionVisitor
+    {
+        private final DataOutputStream out;
+
+        private Sender(DataOutputStream out)
+        {
+            this.out = out;
+        }
+
+        @Override
+        public boolean visit(Solution solution)
+        {
+            List<int[]> rows = solution.getRows();
+            List<int[]> colors = solution.getColors();
+            try {
+                synchronized (this.out) {
+                    this.out.writeByte(SearchCoordinator.SOLUTION);
+                    this.out.writeInt(rows.size());
+                    this.out.writeBoolean(colors != null);
+                    for (int i = 0; i < rows.size(); i++) {
+                        SearchCoordinator.writeNodes(this.out, rows.get(i));
+                        if (colors != null) {
+                            for (int color : colors.get(i)) {
+                                this.out.writeInt(color);
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // the coordinator is gone, so there is no point continuing
+                return false;
+            }
+            return true;
+        }
+    }
+}
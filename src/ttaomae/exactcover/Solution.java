@@ -0,0 +1,83 @@
+package ttaomae.exactcover;
+
+import java.util.List;
+
+/**
+ * A solution to an exact cover problem. Each row of the solution is stored as
+ * the ascending indices of the columns it contains, so a Solution is
+ * independent of the solver which produced it.
+ */
+public class Solution
+{
+    private final String[] names;
+    private final List<int[]> rows;
+    /** The colors of each row, or null if the rows do not have colors. */
+    private final List<int[]> colors;
+
+    Solution(String[] names, List<int[]> rows)
+    {
+        this(names, rows, null);
+    }
+
+    Solution(String[] names, List<int[]> rows, List<int[]> colors)
+    {
+        assert (names != null);
+        assert (rows != null);
+        assert (colors == null || colors.size() == rows.size());
+        this.names = names;
+        this.rows = rows;
+        this.colors = colors;
+    }
+
+    /**
+     * Returns the column indices of each row of this solution.
+     */
+    List<int[]> getRows()
+    {
+        return this.rows;
+    }
+
+    /**
+     * Returns the colors of each row of this solution, or null if the rows
+     * do not have colors.
+     */
+    List<int[]> getColors()
+    {
+        return this.colors;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < this.rows.size(); i++) {
+            int[] rowColors = (this.colors == null) ? null : this.colors.get(i);
+            sb.append(toRowString(this.rows.get(i), rowColors));
+            sb.append("\n");
+        }
+
+        // delete extra newline
+        if (sb.length() > 0) {
+            sb.deleteCharAt(sb.length() - 1);
+        }
+
+        return sb.toString();
+    }
+
+    private String toRowString(int[] row, int[] rowColors)
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(this.names[row[i]]);
+            if (rowColors != null && rowColors[i] != 0) {
+                sb.append(":").append(rowColors[i]);
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,32 @@
+package ttaomae.exactcover;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A thread-safe SolutionVisitor which stores every solution it visits.
+ */
+public class SolutionCollector implements SolutionVisitor
+{
+    private final List<Solution> solutions;
+
+    public SolutionCollector()
+    {
+        this.solutions = new ArrayList<>();
+    }
+
+    @Override
+    public synchronized boolean visit(Solution solution)
+    {
+        this.solutions.add(solution);
+        return true;
+    }
+
+    /**
+     * Returns the solutions visited so far, in the order they were visited.
+     */
+    public synchronized List<Solution> getSolutions()
+    {
+        return new ArrayList<>(this.solutions);
+    }
+}
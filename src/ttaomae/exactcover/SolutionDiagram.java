@@ -0,0 +1,391 @@
+package ttaomae.exactcover;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Every solution to an exact cover problem, stored as a zero-suppressed
+ * decision diagram. Each node chooses whether a row is in the solution; its
+ * hi child gives the rest of the solutions which contain the row and its lo
+ * child gives the solutions which do not. Equal subproblems share the same
+ * node, so the diagram is usually far smaller than the list of solutions.
+ *
+ * A diagram can be written to a file and read back, then counted, sampled
+ * and iterated without searching again.
+ */
+public class SolutionDiagram implements Iterable<Solution>
+{
+    /** The node with no solutions. */
+    static final int BOTTOM = 0;
+    /** The node with a single, empty solution. */
+    static final int TOP = 1;
+
+    private static final int MAGIC = 0x5A444431;
+
+    private final String[] names;
+    /** The column indices of each row used by the diagram. */
+    private final int[][] rows;
+    /** The rows which are part of every solution. */
+    private final int[] fixed;
+    /** The row, lo child and hi child of each node, indexed by node. */
+    private final int[] var;
+    private final int[] lo;
+    private final int[] hi;
+    private final int root;
+    /** The number of solutions below each node, computed when needed. */
+    private long[] counts;
+
+    private SolutionDiagram(String[] names, int[][] rows, int[] fixed,
+                            int[] var, int[] lo, int[] hi, int root)
+    {
+        this.names = names;
+        this.rows = rows;
+        this.fixed = fixed;
+        this.var = var;
+        this.lo = lo;
+        this.hi = hi;
+        this.root = root;
+    }
+
+    /**
+     * Reads a diagram previously written with {@link #write(File)}.
+     */
+    public static SolutionDiagram read(File file) throws IOException,
+            DataFormatException
+    {
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null");
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new DataFormatException("file is not a solution diagram");
+            }
+
+            String[] names = new String[readCount(in)];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = in.readUTF();
+            }
+
+            int[][] rows = new int[readCount(in)][];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = new int[readCount(in)];
+                for (int j = 0; j < rows[i].length; j++) {
+                    rows[i][j] = readIndex(in, names.length, "column");
+                }
+            }
+
+            int[] fixed = new int[readCount(in)];
+            for (int i = 0; i < fixed.length; i++) {
+                fixed[i] = readIndex(in, rows.length, "row");
+            }
+
+            // children always precede their parents
+            int nNodes = readCount(in) + 2;
+            int[] var = new int[nNodes];
+            int[] lo = new int[nNodes];
+            int[] hi = new int[nNodes];
+            for (int n = 2; n < nNodes; n++) {
+                var[n] = readIndex(in, rows.length, "row");
+                lo[n] = readIndex(in, n, "node");
+                hi[n] = readIndex(in, n, "node");
+                if (hi[n] == BOTTOM) {
+                    throw new DataFormatException("node " + n + " has no hi child");
+                }
+            }
+            int root = readIndex(in, nNodes, "node");
+
+            return new SolutionDiagram(names, rows, fixed, var, lo, hi, root);
+        } catch (EOFException e) {
+            throw new DataFormatException("unexpected end of file");
+        }
+    }
+
+    private static int readCount(DataInputStream in) throws IOException,
+            DataFormatException
+    {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new DataFormatException("negative count: " + count);
+        }
+        return count;
+    }
+
+    private static int readIndex(DataInputStream in, int bound, String kind)
+            throws IOException, DataFormatException
+    {
+        int index = in.readInt();
+        if (index < 0 || index >= bound) {
+            throw new DataFormatException("invalid " + kind + ": " + index);
+        }
+        return index;
+    }
+
+    /**
+     * Writes this diagram to a file in a compact binary format.
+     */
+    public void write(File file) throws IOException
+    {
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null");
+        }
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+
+            out.writeInt(this.names.length);
+            for (String name : this.names) {
+                out.writeUTF(name);
+            }
+
+            out.writeInt(this.rows.length);
+            for (int[] row : this.rows) {
+                out.writeInt(row.length);
+                for (int col : row) {
+                    out.writeInt(col);
+                }
+            }
+
+            out.writeInt(this.fixed.length);
+            for (int row : this.fixed) {
+                out.writeInt(row);
+            }
+
+            out.writeInt(this.var.length - 2);
+            for (int n = 2; n < this.var.length; n++) {
+                out.writeInt(this.var[n]);
+                out.writeInt(this.lo[n]);
+                out.writeInt(this.hi[n]);
+            }
+            out.writeInt(this.root);
+        }
+    }
+
+    /**
+     * Returns the number of nodes in this diagram, not including the two
+     * terminal nodes.
+     */
+    public int size()
+    {
+        return this.var.length - 2;
+    }
+
+    /**
+     * Returns the number of solutions.
+     *
+     * @throws ArithmeticException if there are more than Long.MAX_VALUE
+     *         solutions
+     */
+    public long count()
+    {
+        return getCounts()[this.root];
+    }
+
+    private long[] getCounts()
+    {
+        if (this.counts == null) {
+            long[] counts = new long[this.var.length];
+            counts[TOP] = 1;
+            for (int n = 2; n < counts.length; n++) {
+                counts[n] = Math.addExact(counts[this.lo[n]], counts[this.hi[n]]);
+            }
+            this.counts = counts;
+        }
+        return this.counts;
+    }
+
+    /**
+     * Returns the solution at the specified index. Solutions are ordered by
+     * following lo children before hi children.
+     *
+     * @throws IndexOutOfBoundsException if the index is not less than the
+     *         number of solutions
+     */
+    public Solution get(long index)
+    {
+        long[] counts = getCounts();
+        if (index < 0 || index >= counts[this.root]) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+
+        List<int[]> solution = new ArrayList<>();
+        int n = this.root;
+        while (n != TOP) {
+            if (index < counts[this.lo[n]]) {
+                n = this.lo[n];
+            }
+            else {
+                index -= counts[this.lo[n]];
+                solution.add(this.rows[this.var[n]]);
+                n = this.hi[n];
+            }
+        }
+        for (int row : this.fixed) {
+            solution.add(this.rows[row]);
+        }
+
+        return new Solution(this.names, solution);
+    }
+
+    /**
+     * Returns a solution chosen uniformly at random.
+     *
+     * @throws NoSuchElementException if there are no solutions
+     */
+    public Solution sample(Random random)
+    {
+        if (random == null) {
+            throw new IllegalArgumentException("random must not be null");
+        }
+
+        long count = count();
+        if (count == 0) {
+            throw new NoSuchElementException("there are no solutions");
+        }
+
+        // reject values from the incomplete range at the top so that every
+        // index is equally likely
+        long bits;
+        long index;
+        do {
+            bits = random.nextLong() >>> 1;
+            index = bits % count;
+        } while (bits - index + (count - 1) < 0);
+
+        return get(index);
+    }
+
+    /**
+     * Returns an iterator over every solution, in the same order as
+     * {@link #get(long)}.
+     */
+    @Override
+    public Iterator<Solution> iterator()
+    {
+        final long count = count();
+        return new Iterator<Solution>() {
+            private long next = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return this.next < count;
+            }
+
+            @Override
+            public Solution next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(this.next++);
+            }
+        };
+    }
+
+    /**
+     * Builds a diagram one node at a time. Nodes are created bottom up, so
+     * the children of a node always have smaller indices than the node.
+     */
+    static class Builder
+    {
+        private final List<int[]> nodes;
+        /** Finds an existing node with the same row and children. */
+        private final Map<List<Integer>, Integer> unique;
+
+        Builder()
+        {
+            this.nodes = new ArrayList<>();
+            this.nodes.add(null);
+            this.nodes.add(null);
+            this.unique = new HashMap<>();
+        }
+
+        /**
+         * Returns the node for the row with the specified children, reusing
+         * an existing node if there is one. A node whose hi child is BOTTOM
+         * is never created; its lo child is returned instead.
+         */
+        int node(int row, int lo, int hi)
+        {
+            if (hi == BOTTOM) {
+                return lo;
+            }
+
+            List<Integer> key = Arrays.asList(row, lo, hi);
+            Integer n = this.unique.get(key);
+            if (n == null) {
+                n = this.nodes.size();
+                this.nodes.add(new int[] { row, lo, hi });
+                this.unique.put(key, n);
+            }
+            return n;
+        }
+
+        /**
+         * Creates the diagram. Only the rows used by a node or in fixed are
+         * kept, and they are numbered in the order they are first used.
+         *
+         * @param offsets the offsets of the rows in columns
+         * @param columns the ascending column indices of each row, one row
+         *            after another
+         * @param fixed the rows which are part of every solution
+         */
+        SolutionDiagram build(String[] names, int[] offsets, int[] columns, int[] fixed,
+                              int root)
+        {
+            Map<Integer, Integer> rowIndices = new HashMap<>();
+            List<int[]> usedRows = new ArrayList<>();
+
+            int nNodes = this.nodes.size();
+            int[] var = new int[nNodes];
+            int[] lo = new int[nNodes];
+            int[] hi = new int[nNodes];
+            for (int n = 2; n < nNodes; n++) {
+                int[] node = this.nodes.get(n);
+                var[n] = renumber(node[0], offsets, columns, rowIndices, usedRows);
+                lo[n] = node[1];
+                hi[n] = node[2];
+            }
+
+            int[] fixedRows = new int[fixed.length];
+            for (int i = 0; i < fixed.length; i++) {
+                fixedRows[i] = renumber(fixed[i], offsets, columns, rowIndices, usedRows);
+            }
+
+            return new SolutionDiagram(names.clone(),
+                    usedRows.toArray(new int[usedRows.size()][]),
+                    fixedRows, var, lo, hi, root);
+        }
+
+        private static int renumber(int row, int[] offsets, int[] columns,
+                                    Map<Integer, Integer> rowIndices,
+                                    List<int[]> usedRows)
+        {
+            Integer index = rowIndices.get(row);
+            if (index == null) {
+                index = usedRows.size();
+                usedRows.add(Arrays.copyOfRange(columns, offsets[row], offsets[row + 1]));
+                rowIndices.put(row, index);
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package ttaomae.exactcover;
+
+/**
+ * Receives solutions as soon as they are found by an ExactCoverSolver.
+ *
+ * When a solver searches with more than one thread, a visitor may be called
+ * concurrently from several threads and must be thread-safe.
+ */
+public interface SolutionVisitor
+{
+    /**
+     * Called once for each solution found.
+     *
+     * @param solution
+     * @return true to continue searching or false to stop the search
+     */
+    boolean visit(Solution solution);
+}
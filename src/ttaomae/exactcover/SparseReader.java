@@ -0,0 +1,199 @@
+package ttaomae.exactcover;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads an exact cover problem in a sparse text format, one row at a time.
+ * The first line is a header of column names, in the same format as the
+ * header of a file read by {@link ExactCover#ExactCover(File)}, and each
+ * following line lists the columns of one row, separated by whitespace:
+ *
+ * <pre>
+ * # a b c | x
+ * a c
+ * b x
+ * 1 2
+ * </pre>
+ *
+ * Each column is given by its name, or otherwise by its index. Blank lines
+ * are ignored. Rows are read as they are needed, so they can be stored
+ * straight into an ExactCover or written to another format without holding
+ * the whole file in memory.
+ */
+public class SparseReader implements Closeable
+{
+    private final BufferedReader in;
+    private final String[] names;
+    private final int nPrimary;
+    private final Map<String, Integer> columns;
+    private int lineNumber;
+
+    /**
+     * Constructs a reader and reads the header.
+     *
+     * @throws DataFormatException if the header is missing or invalid
+     */
+    public SparseReader(Reader in) throws IOException, DataFormatException
+    {
+        if (in == null) {
+            throw new IllegalArgumentException("in must not be null");
+        }
+
+        this.in = (in instanceof BufferedReader) ? (BufferedReader) in : new BufferedReader(in);
+
+        String line = this.in.readLine();
+        this.lineNumber = 1;
+        if (line == null) {
+            throw new DataFormatException("file is empty");
+        }
+        line = line.trim();
+        if (!line.startsWith("#")) {
+            throw new DataFormatException("first line must be a header of column names");
+        }
+
+        ExactCover.Header header = ExactCover.Header.parse(line);
+        this.names = header.names;
+        this.nPrimary = header.nPrimary;
+
+        this.columns = new HashMap<>();
+        for (int i = 0; i < this.names.length; i++) {
+            if (this.columns.put(this.names[i], i) != null) {
+                throw new DataFormatException("duplicate column name: " + this.names[i]);
+            }
+        }
+    }
+
+    public SparseReader(File file) throws FileNotFoundException, IOException,
+            DataFormatException
+    {
+        this(openFile(file));
+    }
+
+    private static Reader openFile(File file) throws FileNotFoundException
+    {
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null");
+        }
+        return new FileReader(file);
+    }
+
+    /**
+     * @return the names of the columns
+     */
+    public String[] getNames()
+    {
+        return Arrays.copyOf(this.names, this.names.length);
+    }
+
+    /**
+     * @return the number of primary columns
+     */
+    public int getNumPrimaryColumns()
+    {
+        return this.nPrimary;
+    }
+
+    /**
+     * Reads the next row.
+     *
+     * @return the ascending columns of the row, or null if there are no more
+     *         rows
+     * @throws DataFormatException if a column is not in the header or is
+     *             listed more than once in the row
+     */
+    public int[] readRow() throws IOException, DataFormatException
+    {
+        String line;
+        do {
+            line = this.in.readLine();
+            this.lineNumber++;
+            if (line == null) {
+                return null;
+            }
+            line = line.trim();
+        } while (line.isEmpty());
+
+        String[] tokens = line.split("\\s+");
+        int[] row = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            row[i] = toColumn(tokens[i]);
+        }
+
+        Arrays.sort(row);
+        for (int i = 1; i < row.length; i++) {
+            if (row[i] == row[i - 1]) {
+                throw new DataFormatException(String.format(
+                        "line %d: column %s is listed more than once", this.lineNumber,
+                        this.names[row[i]]));
+            }
+        }
+
+        return row;
+    }
+
+    private int toColumn(String token) throws DataFormatException
+    {
+        Integer column = this.columns.get(token);
+        if (column != null) {
+            return column;
+        }
+
+        try {
+            int index = Integer.parseInt(token);
+            if (index >= 0 && index < this.names.length) {
+                return index;
+            }
+        } catch (NumberFormatException e) {
+            // not an index either
+        }
+        throw new DataFormatException(String.format("line %d: unknown column: %s",
+                this.lineNumber, token));
+    }
+
+    /**
+     * Reads every remaining row into an ExactCover, in the order they are
+     * listed. The rows are stored in compressed sparse row form as they are
+     * read, and rows which were already listed are removed.
+     *
+     * @throws DataFormatException if there are no rows
+     */
+    public ExactCover readExactCover() throws IOException, DataFormatException
+    {
+        int[] offsets = new int[1024];
+        int[] columns = new int[4096];
+        int nRows = 0;
+        int[] row;
+        while ((row = readRow()) != null) {
+            if (nRows + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            int end = offsets[nRows];
+            if (end + row.length > columns.length) {
+                columns = Arrays.copyOf(columns, Math.max(columns.length * 2, end + row.length));
+            }
+            System.arraycopy(row, 0, columns, end, row.length);
+            offsets[++nRows] = end + row.length;
+        }
+
+        if (nRows == 0) {
+            throw new DataFormatException("no data");
+        }
+        return new ExactCover(this.names, this.nPrimary, Arrays.copyOf(offsets, nRows + 1),
+                columns, true);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.in.close();
+    }
+}
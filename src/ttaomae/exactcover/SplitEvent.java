@@ -0,0 +1,25 @@
+package ttaomae.exactcover;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for a task giving its unexplored branches at one
+ * level to new tasks.
+ */
+@Name("ttaomae.exactcover.Split")
+@Label("Search Split")
+@Category("Exact Cover")
+@Description("A task giving its unexplored branches to new tasks")
+class SplitEvent extends Event
+{
+    @Label("Prefix Size")
+    @Description("The number of rows covered by each new task before it starts searching")
+    int prefixSize;
+
+    @Label("Tasks")
+    int tasks;
+}
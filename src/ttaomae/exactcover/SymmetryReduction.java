@@ -0,0 +1,459 @@
+package ttaomae.exactcover;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reduces an exact cover problem by its symmetries, so that only one
+ * solution from each class of symmetric solutions is searched for.
+ *
+ * Each symmetry is a permutation of the columns which maps every row to a
+ * row. A primary column which every symmetry leaves in place is chosen and,
+ * of the rows containing it, only one row from each orbit is kept. Every
+ * solution contains exactly one of those rows, so each class of solutions
+ * still has a solution in the reduced problem. If a kept row is left in
+ * place by some symmetry, a class may have several solutions containing it,
+ * so solutions are also filtered to keep the least of them.
+ */
+public class SymmetryReduction
+{
+    private final String[] names;
+    /**
+     * The symmetries used to reduce the problem, starting with the identity.
+     * This only contains the identity if no column could be chosen.
+     */
+    private final List<int[]> symmetries;
+    /** The chosen column, or -1 if the problem was not reduced. */
+    private final int column;
+    private final ExactCover reduced;
+    /**
+     * The symmetries, other than the identity, which leave each kept row of
+     * the chosen column in place. Rows with no such symmetries are omitted.
+     */
+    private final Map<Row, List<int[]>> stabilizers;
+
+    /**
+     * Constructs a reduction of an exact cover problem. The symmetries should
+     * form a group; the identity is added if it is not included.
+     *
+     * @param ec the problem to reduce
+     * @param symmetries permutations of the columns of ec
+     * @throws IllegalArgumentException if ec has colors, or if a symmetry
+     *         is not a permutation of the columns, does not map primary
+     *         columns to primary columns or does not map every row to a row
+     */
+    public SymmetryReduction(ExactCover ec, Collection<int[]> symmetries)
+    {
+        if (ec == null) {
+            throw new IllegalArgumentException("ec must not be null");
+        }
+        if (symmetries == null) {
+            throw new IllegalArgumentException("symmetries must not be null");
+        }
+        if (ec.hasColors()) {
+            throw new IllegalArgumentException("rows must not have colors");
+        }
+
+        this.names = ec.getNames();
+        int nPrimary = ec.getNumPrimaryColumns();
+        int[] offsets = ec.getOffsetArray();
+        int[] columns = ec.getColumnArray();
+        int nRows = offsets.length - 1;
+        Set<Row> rows = new HashSet<>();
+        for (int r = 0; r < nRows; r++) {
+            rows.add(new Row(columns, offsets[r], offsets[r + 1]));
+        }
+
+        int[] identity = new int[this.names.length];
+        for (int col = 0; col < identity.length; col++) {
+            identity[col] = col;
+        }
+        List<int[]> group = new ArrayList<>();
+        group.add(identity);
+        for (int[] symmetry : symmetries) {
+            checkSymmetry(symmetry, nPrimary, offsets, columns, rows);
+            if (!contains(group, symmetry)) {
+                group.add(symmetry.clone());
+            }
+        }
+
+        // choose the column which leaves the fewest kept rows in place
+        // under some symmetry, then the one which keeps the fewest rows
+        int bestColumn = -1;
+        BitSet bestKept = null;
+        Map<Row, List<int[]>> bestStabilizers = null;
+        if (group.size() > 1) {
+            for (int col = 0; col < nPrimary; col++) {
+                if (!isFixed(group, col)) {
+                    continue;
+                }
+
+                BitSet kept = new BitSet(nRows);
+                Map<Row, List<int[]>> stabilizers = new HashMap<>();
+                findOrbits(group, offsets, columns, col, kept, stabilizers);
+
+                if (bestColumn == -1
+                        || stabilizers.size() < bestStabilizers.size()
+                        || (stabilizers.size() == bestStabilizers.size()
+                            && kept.cardinality() < bestKept.cardinality())) {
+                    bestColumn = col;
+                    bestKept = kept;
+                    bestStabilizers = stabilizers;
+                }
+            }
+        }
+
+        if (bestColumn == -1) {
+            this.symmetries = group.subList(0, 1);
+            this.column = -1;
+            this.reduced = ec;
+            this.stabilizers = new HashMap<>();
+            return;
+        }
+
+        // the kept rows are a subset of distinct rows, so they are still
+        // distinct and in order
+        int[] reducedOffsets = new int[nRows + 1];
+        int[] reducedColumns = new int[columns.length];
+        int nReduced = 0;
+        for (int r = 0; r < nRows; r++) {
+            if (!contains(columns, offsets[r], offsets[r + 1], bestColumn) || bestKept.get(r)) {
+                int length = offsets[r + 1] - offsets[r];
+                System.arraycopy(columns, offsets[r], reducedColumns,
+                        reducedOffsets[nReduced], length);
+                reducedOffsets[nReduced + 1] = reducedOffsets[nReduced] + length;
+                nReduced++;
+            }
+        }
+
+        this.symmetries = group;
+        this.column = bestColumn;
+        this.reduced = new ExactCover(this.names, nPrimary,
+                Arrays.copyOf(reducedOffsets, nReduced + 1), reducedColumns, false);
+        this.stabilizers = bestStabilizers;
+    }
+
+    private void checkSymmetry(int[] symmetry, int nPrimary, int[] offsets, int[] columns,
+                               Set<Row> rows)
+    {
+        if (symmetry == null || symmetry.length != this.names.length) {
+            throw new IllegalArgumentException(
+                    "symmetry must have one entry for each column");
+        }
+
+        BitSet image = new BitSet();
+        for (int col = 0; col < symmetry.length; col++) {
+            int target = symmetry[col];
+            if (target < 0 || target >= symmetry.length || image.get(target)) {
+                throw new IllegalArgumentException(
+                        "symmetry must be a permutation of the columns");
+            }
+            if ((col < nPrimary) != (target < nPrimary)) {
+                throw new IllegalArgumentException(
+                        "symmetry must map primary columns to primary columns");
+            }
+            image.set(target);
+        }
+
+        for (int r = 0; r + 1 < offsets.length; r++) {
+            if (!rows.contains(permute(columns, offsets[r], offsets[r + 1], symmetry))) {
+                throw new IllegalArgumentException(
+                        "symmetry must map every row to a row");
+            }
+        }
+    }
+
+    private static boolean contains(List<int[]> group, int[] symmetry)
+    {
+        for (int[] g : group) {
+            if (Arrays.equals(g, symmetry)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isFixed(List<int[]> group, int col)
+    {
+        for (int[] g : group) {
+            if (g[col] != col) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the ascending columns at indices from up to to contain
+     * a column.
+     */
+    private static boolean contains(int[] columns, int from, int to, int col)
+    {
+        return Arrays.binarySearch(columns, from, to, col) >= 0;
+    }
+
+    /**
+     * Finds the orbits of the rows containing a column, adding the index of
+     * the first row of each orbit to kept and the symmetries which leave it
+     * in place to stabilizers.
+     */
+    private static void findOrbits(List<int[]> group, int[] offsets, int[] columns, int col,
+                                   BitSet kept, Map<Row, List<int[]>> stabilizers)
+    {
+        Set<Row> seen = new HashSet<>();
+        for (int r = 0; r + 1 < offsets.length; r++) {
+            if (!contains(columns, offsets[r], offsets[r + 1], col)) {
+                continue;
+            }
+            Row row = new Row(columns, offsets[r], offsets[r + 1]);
+            if (seen.contains(row)) {
+                continue;
+            }
+
+            kept.set(r);
+            List<int[]> stabilizer = new ArrayList<>();
+            // skip the identity
+            for (int i = 1; i < group.size(); i++) {
+                Row image = permute(columns, offsets[r], offsets[r + 1], group.get(i));
+                seen.add(image);
+                if (image.equals(row)) {
+                    stabilizer.add(group.get(i));
+                }
+            }
+            if (!stabilizer.isEmpty()) {
+                stabilizers.put(row, stabilizer);
+            }
+        }
+    }
+
+    /**
+     * Returns the image under a symmetry of the row whose columns are at
+     * indices from up to to.
+     */
+    private static Row permute(int[] columns, int from, int to, int[] symmetry)
+    {
+        int[] image = new int[to - from];
+        for (int i = from; i < to; i++) {
+            image[i - from] = symmetry[columns[i]];
+        }
+        Arrays.sort(image);
+        return new Row(image, 0, image.length);
+    }
+
+    /**
+     * Returns the reduced problem.
+     */
+    public ExactCover getExactCover()
+    {
+        return this.reduced;
+    }
+
+    /**
+     * Returns the number of symmetries used to reduce the problem, including
+     * the identity. This is 1 if the problem could not be reduced.
+     */
+    public int getGroupSize()
+    {
+        return this.symmetries.size();
+    }
+
+    /**
+     * Returns whether no kept row is left in place by a symmetry other than
+     * the identity. In that case, every solution of the reduced problem is
+     * the only one in its class, and every class has getGroupSize()
+     * solutions.
+     */
+    public boolean isFree()
+    {
+        return this.stabilizers.isEmpty();
+    }
+
+    /**
+     * Returns a visitor which passes solutions of the reduced problem on to
+     * another visitor, skipping solutions which are not the least in their
+     * class. If expand is true, every solution in the class is passed on
+     * instead, so the visitor sees every solution of the original problem.
+     */
+    public SolutionVisitor filter(final SolutionVisitor visitor, final boolean expand)
+    {
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor must not be null");
+        }
+
+        return new SolutionVisitor() {
+            @Override
+            public boolean visit(Solution solution)
+            {
+                List<int[]> rows = solution.getRows();
+                List<int[]> stabilizer = getStabilizer(rows);
+
+                int[] key = toKey(rows);
+                if (stabilizer != null) {
+                    for (int[] g : stabilizer) {
+                        if (compare(toKey(permute(rows, g)), key) < 0) {
+                            return true;
+                        }
+                    }
+                }
+
+                if (!expand) {
+                    return visitor.visit(solution);
+                }
+
+                // if the kept row is only left in place by the identity,
+                // every image is different
+                List<int[]> keys = new ArrayList<>();
+                for (int[] g : SymmetryReduction.this.symmetries) {
+                    List<int[]> image = permute(rows, g);
+                    if (stabilizer != null) {
+                        int[] imageKey = toKey(image);
+                        if (contains(keys, imageKey)) {
+                            continue;
+                        }
+                        keys.add(imageKey);
+                    }
+
+                    if (!visitor.visit(new Solution(SymmetryReduction.this.names, image))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Counts the solutions of the reduced problem, one for each class, or
+     * every solution of the original problem if expand is true.
+     *
+     * @param solver a solver constructed from {@link #getExactCover()}
+     */
+    public long countSolutions(ExactCoverSolver solver, int nThreads, int depth,
+                               boolean expand)
+    {
+        if (solver == null) {
+            throw new IllegalArgumentException("solver must not be null");
+        }
+
+        if (isFree()) {
+            long count = solver.countSolutions(nThreads, depth);
+            return expand ? count * getGroupSize() : count;
+        }
+
+        final AtomicLong count = new AtomicLong();
+        solver.solve(filter(new SolutionVisitor() {
+            @Override
+            public boolean visit(Solution solution)
+            {
+                count.incrementAndGet();
+                return true;
+            }
+        }, expand), nThreads, depth);
+        return count.get();
+    }
+
+    private List<int[]> getStabilizer(List<int[]> rows)
+    {
+        if (this.column == -1) {
+            return null;
+        }
+
+        for (int[] row : rows) {
+            if (Arrays.binarySearch(row, this.column) >= 0) {
+                return this.stabilizers.get(new Row(row, 0, row.length));
+            }
+        }
+        return null;
+    }
+
+    private static List<int[]> permute(List<int[]> rows, int[] symmetry)
+    {
+        List<int[]> image = new ArrayList<>();
+        for (int[] row : rows) {
+            int[] imageRow = new int[row.length];
+            for (int i = 0; i < row.length; i++) {
+                imageRow[i] = symmetry[row[i]];
+            }
+            Arrays.sort(imageRow);
+            image.add(imageRow);
+        }
+        return image;
+    }
+
+    /**
+     * Returns a key which is equal for two solutions only if they have the
+     * same rows, in any order. Each column is mapped to the first column of
+     * the row containing it, or -1 if no row contains it.
+     */
+    private int[] toKey(List<int[]> rows)
+    {
+        int[] key = new int[this.names.length];
+        Arrays.fill(key, -1);
+        for (int[] row : rows) {
+            for (int col : row) {
+                key[col] = row[0];
+            }
+        }
+        return key;
+    }
+
+    private static int compare(int[] a, int[] b)
+    {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return a[i] < b[i] ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A row whose ascending columns are at indices from up to to of an
+     * array, compared by its columns without copying them.
+     */
+    private static final class Row
+    {
+        private final int[] columns;
+        private final int from;
+        private final int to;
+        private final int hash;
+
+        public Row(int[] columns, int from, int to)
+        {
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+
+            int hash = 1;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + columns[i];
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Row)) {
+                return false;
+            }
+            Row other = (Row) obj;
+            return Arrays.equals(this.columns, this.from, this.to,
+                    other.columns, other.from, other.to);
+        }
+    }
+}
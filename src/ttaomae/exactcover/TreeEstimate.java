@@ -0,0 +1,50 @@
+package ttaomae.exactcover;
+
+/**
+ * An estimate of the size of a search tree, made before searching it.
+ */
+public class TreeEstimate
+{
+    private final double nodes;
+    private final double solutions;
+    private final int samples;
+
+    TreeEstimate(double nodes, double solutions, int samples)
+    {
+        this.nodes = nodes;
+        this.solutions = solutions;
+        this.samples = samples;
+    }
+
+    /**
+     * Returns the estimated number of nodes in the search tree, including
+     * the root.
+     */
+    public double getNodes()
+    {
+        return this.nodes;
+    }
+
+    /**
+     * Returns the estimated number of solutions.
+     */
+    public double getSolutions()
+    {
+        return this.solutions;
+    }
+
+    /**
+     * Returns the number of random paths the estimate is based on.
+     */
+    public int getSamples()
+    {
+        return this.samples;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%.0f nodes, %.0f solutions (%d samples)",
+                this.nodes, this.solutions, this.samples);
+    }
+}
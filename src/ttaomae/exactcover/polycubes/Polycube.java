@@ -59,6 +59,21 @@ public class Polycube
         return Collections.<Cube> unmodifiableSet(this.cubes);
     }
 
+    public int getXLength()
+    {
+        return this.xLength;
+    }
+
+    public int getYLength()
+    {
+        return this.yLength;
+    }
+
+    public int getZLength()
+    {
+        return this.zLength;
+    }
+
     private Polycube transpose(Axis axis)
     {
         Collection<Cube> newCubes = new ArrayList<>();
@@ -1,8 +1,8 @@
 package ttaomae.exactcover.polycubes;
 
 import java.util.ArrayList;
-import java.util.BitSet;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -12,9 +12,14 @@ import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
-import ttaomae.exactcover.DancingLinks;
-import ttaomae.exactcover.DancingLinks.Solution;
 import ttaomae.exactcover.ExactCover;
+import ttaomae.exactcover.ExactCoverSolverFactory;
+import ttaomae.exactcover.ExactCoverSolvers;
+import ttaomae.exactcover.PhaseEvent;
+import ttaomae.exactcover.Solution;
+import ttaomae.exactcover.SolutionCollector;
+import ttaomae.exactcover.SolutionVisitor;
+import ttaomae.exactcover.SymmetryReduction;
 import ttaomae.exactcover.polycubes.Polycube.Cube;
 
 public class PolycubePuzzle
@@ -27,6 +32,9 @@ public class PolycubePuzzle
     private int maxY;
     private int minZ;
     private int maxZ;
+    private boolean breakSymmetry;
+    private boolean expandSymmetry;
+    private ExactCoverSolverFactory solverFactory = ExactCoverSolvers.DEFAULT;
 
     public PolycubePuzzle(int x, int y, int z, Map<String, Polycube> pieces)
     {
@@ -59,7 +67,74 @@ public class PolycubePuzzle
         }
     }
 
+    /**
+     * Sets whether to only search for one solution from each class of
+     * solutions which are rotations or reflections of each other. Symmetry
+     * breaking is disabled by default.
+     */
+    public void setSymmetryBreaking(boolean breakSymmetry)
+    {
+        this.breakSymmetry = breakSymmetry;
+    }
+
+    /**
+     * Sets whether, when breaking symmetry, each solution found is expanded
+     * back into every rotation and reflection of it, so that every solution
+     * is still returned or counted.
+     */
+    public void setExpandSymmetry(boolean expandSymmetry)
+    {
+        this.expandSymmetry = expandSymmetry;
+    }
+
+    /**
+     * Sets the factory which creates the solver for each search, from the
+     * exact cover problem of this puzzle or its reduction. By default, the
+     * engine is chosen by {@link ExactCoverSolvers#create(ExactCover)},
+     * which picks BitsetAlgorithmX for small puzzles; a factory which
+     * returns a configured DancingLinks is needed to use its checkpoints,
+     * column choosers or metrics.
+     */
+    public void setSolverFactory(ExactCoverSolverFactory solverFactory)
+    {
+        if (solverFactory == null) {
+            throw new IllegalArgumentException("solverFactory must not be null");
+        }
+        this.solverFactory = solverFactory;
+    }
+
     public List<Solution> solve(int nThreads, int depth)
+    {
+        SolutionCollector collector = new SolutionCollector();
+        solve(collector, nThreads, depth);
+        return collector.getSolutions();
+    }
+
+    public void solve(SolutionVisitor visitor, int nThreads, int depth)
+    {
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be positive");
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must be non-negative");
+        }
+
+        if (!this.breakSymmetry) {
+            this.solverFactory.create(createExactCover()).solve(visitor, nThreads, depth);
+            return;
+        }
+
+        SymmetryReduction reduction = createReduction();
+        this.solverFactory.create(reduction.getExactCover()).solve(
+                reduction.filter(visitor, this.expandSymmetry), nThreads, depth);
+    }
+
+    public List<Solution> solve()
+    {
+        return solve(1, 0);
+    }
+
+    public long countSolutions(int nThreads, int depth)
     {
         if (nThreads < 1) {
             throw new IllegalArgumentException("numThreads must be positive");
@@ -68,67 +143,243 @@ public class PolycubePuzzle
             throw new IllegalArgumentException("depth must be non-negative");
         }
 
-        List<String> names = new ArrayList<>();
+        if (!this.breakSymmetry) {
+            return this.solverFactory.create(createExactCover()).countSolutions(nThreads, depth);
+        }
+
+        SymmetryReduction reduction = createReduction();
+        return reduction.countSolutions(this.solverFactory.create(reduction.getExactCover()),
+                nThreads, depth, this.expandSymmetry);
+    }
+
+    public long countSolutions()
+    {
+        return countSolutions(1, 0);
+    }
+
+    /**
+     * Creates the exact cover problem for this puzzle, with a column for each
+     * piece followed by a column for each cell of the field, and a row for
+     * each placement of a piece.
+     */
+    public ExactCover createExactCover()
+    {
+        PhaseEvent event = new PhaseEvent("build exact cover");
+        event.begin();
 
+        int nPieces = this.pieces.size();
+        String[] names = new String[nPieces + this.puzzle.size()];
+        int column = 0;
         for (String s : this.pieces.keySet()) {
-            names.add(s);
+            names[column++] = s;
+        }
+        for (Cube c : this.puzzle) {
+            names[column++] = c.toString().replace(" ", "");
         }
+
+        int xLength = this.maxX - this.minX;
+        int yLength = this.maxY - this.minY;
+        int zLength = this.maxZ - this.minZ;
+
+        // the column of each voxel of the box, indexed by
+        // (x * yLength + y) * zLength + z, or -1 if it is not in the puzzle.
+        // The puzzle is sorted by x, y and then z, so the columns ascend with
+        // the index.
+        int[] voxelColumns = new int[xLength * yLength * zLength];
+        Arrays.fill(voxelColumns, -1);
+        column = nPieces;
         for (Cube c : this.puzzle) {
-            names.add(c.toString().replaceAll("\\s", ""));
+            voxelColumns[((c.getX() - this.minX) * yLength + (c.getY() - this.minY)) * zLength
+                    + (c.getZ() - this.minZ)] = column++;
         }
 
-        Set<BitSet> rows = new HashSet<>();
+        int[] offsets = new int[1024];
+        int[] columns = new int[4096];
+        int nRows = 0;
+        int piece = 0;
+        for (Polycube polycube : this.pieces.values()) {
+            for (Polycube rotation : polycube.getRotations()) {
+                int pieceX = rotation.getXLength();
+                int pieceY = rotation.getYLength();
+                int pieceZ = rotation.getZLength();
+                if (pieceX > xLength || pieceY > yLength || pieceZ > zLength) {
+                    continue;
+                }
+
+                // the index of each cube relative to the placement, in
+                // ascending order so that each row is already sorted
+                int[] cubes = new int[rotation.getCubes().size()];
+                int i = 0;
+                for (Cube c : rotation.getCubes()) {
+                    cubes[i++] = (c.getX() * yLength + c.getY()) * zLength + c.getZ();
+                }
+                Arrays.sort(cubes);
+
+                for (int x = 0; x + pieceX <= xLength; x++) {
+                    for (int y = 0; y + pieceY <= yLength; y++) {
+                        for (int z = 0; z + pieceZ <= zLength; z++) {
+                            if (nRows + 1 == offsets.length) {
+                                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                            }
+                            int end = offsets[nRows];
+                            if (end + 1 + cubes.length > columns.length) {
+                                columns = Arrays.copyOf(columns,
+                                        Math.max(columns.length * 2, end + 1 + cubes.length));
+                            }
 
-        for(Entry<String, Polycube> piece : this.pieces.entrySet()) {
-            for (Polycube rotation : piece.getValue().getRotations()) {
-                for (int x = this.minX; x <= this.maxX; x++) {
-                    for (int y = this.minY; y <= this.maxY; y++) {
-                        for (int z = this.minZ; z <= this.maxZ; z++) {
-                            BitSet row = polycubeToBitSet(names, piece.getKey(), rotation, x, y, z);
-                            if (row != null) {
-                                rows.add(row);
+                            int base = (x * yLength + y) * zLength + z;
+                            columns[end] = piece;
+                            int length = 1;
+                            for (int cube : cubes) {
+                                int c = voxelColumns[base + cube];
+                                if (c < 0) {
+                                    break;
+                                }
+                                columns[end + length++] = c;
+                            }
+                            if (length == 1 + cubes.length) {
+                                offsets[++nRows] = end + length;
                             }
                         }
                     }
                 }
             }
+            piece++;
+        }
+
+        // each rotation is distinct, so no two placements are the same
+        ExactCover ec = new ExactCover(names, names.length, Arrays.copyOf(offsets, nRows + 1),
+                columns, false);
+        event.commit();
+        return ec;
+    }
+
+    private SymmetryReduction createReduction()
+    {
+        ExactCover ec = createExactCover();
+
+        PhaseEvent event = new PhaseEvent("reduce symmetry");
+        event.begin();
+        SymmetryReduction reduction = new SymmetryReduction(ec, findSymmetries());
+        event.commit();
+        return reduction;
+    }
+
+    /**
+     * Returns the rotations and reflections which map the puzzle onto
+     * itself, as permutations of the columns of the exact cover. Pieces are
+     * only placed in their rotations, so a reflection maps each piece to the
+     * piece with its mirror image, and is only a symmetry if there is one.
+     */
+    private List<int[]> findSymmetries()
+    {
+        int nPieces = this.pieces.size();
+        List<Polycube> shapes = new ArrayList<>(this.pieces.values());
+        List<Set<Polycube>> rotations = new ArrayList<>();
+        for (Polycube p : shapes) {
+            rotations.add(p.getRotations());
         }
 
-        if (nThreads == 1) {
-            return new DancingLinks(
-                        new ExactCover(names.toArray(new String[0]), rows))
-                        .getSolutions();
+        int[] min = { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE };
+        int[] max = { Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE };
+        Map<Cube, Integer> columns = new HashMap<>();
+        for (Cube c : this.puzzle) {
+            int[] coords = { c.getX(), c.getY(), c.getZ() };
+            for (int i = 0; i < 3; i++) {
+                min[i] = Math.min(min[i], coords[i]);
+                max[i] = Math.max(max[i], coords[i]);
+            }
+            columns.put(c, nPieces + columns.size());
         }
-        else {
-            return new DancingLinks(
-                        new ExactCover(names.toArray(new String[0]), rows))
-                        .getSolutions(nThreads, depth);
+
+        // each symmetry permutes the axes and then flips some of them
+        int[][] axisOrders = { { 0, 1, 2 }, { 0, 2, 1 }, { 1, 0, 2 },
+                               { 1, 2, 0 }, { 2, 0, 1 }, { 2, 1, 0 } };
+        List<int[]> symmetries = new ArrayList<>();
+        for (int[] axes : axisOrders) {
+            for (int flips = 0; flips < 8; flips++) {
+                int[] symmetry = new int[nPieces + this.puzzle.size()];
+                if (mapPieces(shapes, rotations, axes, flips, symmetry)
+                        && mapCubes(columns, min, max, axes, flips, symmetry)) {
+                    symmetries.add(symmetry);
+                }
+            }
         }
+
+        return symmetries;
     }
 
-    public List<Solution> solve()
+    /**
+     * Maps each piece to the piece which can be placed in the transformed
+     * shape of the piece, preferring the piece itself.
+     *
+     * @return false if some piece has no such piece
+     */
+    private static boolean mapPieces(List<Polycube> shapes,
+                                     List<Set<Polycube>> rotations,
+                                     int[] axes, int flips, int[] symmetry)
     {
-        return solve(1, 0);
+        boolean[] used = new boolean[shapes.size()];
+        for (int i = 0; i < shapes.size(); i++) {
+            Polycube image = transform(shapes.get(i), axes, flips);
+
+            int target = -1;
+            if (rotations.get(i).contains(image)) {
+                target = i;
+            }
+            else {
+                for (int j = 0; j < shapes.size() && target == -1; j++) {
+                    if (!used[j] && rotations.get(j).contains(image)) {
+                        target = j;
+                    }
+                }
+            }
+
+            if (target == -1 || used[target]) {
+                return false;
+            }
+            used[target] = true;
+            symmetry[i] = target;
+        }
+        return true;
     }
 
-    private BitSet polycubeToBitSet(List<String> columns, String name, Polycube p, int x, int y, int z)
+    private static boolean mapCubes(Map<Cube, Integer> columns, int[] min,
+                                    int[] max, int[] axes, int flips,
+                                    int[] symmetry)
     {
-        BitSet s = new BitSet();
-        // set column for name of piece
-        s.set(columnIndex(columns, name));
-        for (Cube c : p.getCubes()) {
-            String cs = new Cube(c.getX() + x, c.getY() + y, c.getZ() + z).toString().replaceAll("\\s", "");
-            int column = columnIndex(columns, cs);
-            if (column == -1) {
-                return null;
+        for (Entry<Cube, Integer> entry : columns.entrySet()) {
+            Cube c = entry.getKey();
+            int[] coords = { c.getX() - min[0], c.getY() - min[1], c.getZ() - min[2] };
+            int[] image = new int[3];
+            for (int i = 0; i < 3; i++) {
+                int axis = axes[i];
+                image[i] = ((flips >> i) & 1) != 0
+                           ? (max[axis] - min[axis]) - coords[axis]
+                           : coords[axis];
             }
-            s.set(column);
+
+            Integer column = columns.get(new Cube(min[0] + image[0],
+                    min[1] + image[1], min[2] + image[2]));
+            if (column == null) {
+                return false;
+            }
+            symmetry[entry.getValue()] = column;
         }
-        return s;
+        return true;
     }
 
-    private static int columnIndex(List<String> columns, String c)
+    private static Polycube transform(Polycube p, int[] axes, int flips)
     {
-        return columns.indexOf(c);
+        List<Cube> cubes = new ArrayList<>();
+        for (Cube c : p.getCubes()) {
+            int[] coords = { c.getX(), c.getY(), c.getZ() };
+            int[] image = new int[3];
+            for (int i = 0; i < 3; i++) {
+                image[i] = ((flips >> i) & 1) != 0 ? -coords[axes[i]] : coords[axes[i]];
+            }
+            cubes.add(new Cube(image[0], image[1], image[2]));
+        }
+        return new Polycube(cubes);
     }
 }
@@ -6,10 +6,11 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
-import ttaomae.exactcover.DancingLinks.Solution;
+import ttaomae.exactcover.Solution;
+import ttaomae.exactcover.SolutionVisitor;
 import ttaomae.exactcover.polycubes.Polycube.Cube;
 
 public class TetrisCubeSolver
@@ -43,21 +44,27 @@ public class TetrisCubeSolver
             System.exit(1);
         }
 
-        // find solutions
-        List<Solution> solutions = solve(nThreads, depth);
-        System.out.printf("Total Solutions: %d%n%n", solutions.size());
-        for (Solution s : solutions) {
-            if (output == null) {
-                System.out.println(s + "\n");
-            }
-            else {
-                output.println(s + "\n");
-            }
+        // only count solutions unless they are being written to a file
+        if (output == null) {
+            System.out.printf("Total Solutions: %d%n", countSolutions(nThreads, depth));
+            return;
         }
 
-        if (output != null) {
-            output.close();
-        }
+        // write each solution as soon as it is found
+        final PrintWriter out = output;
+        final AtomicLong count = new AtomicLong();
+        solve(new SolutionVisitor() {
+            @Override
+            public boolean visit(Solution s)
+            {
+                count.incrementAndGet();
+                out.println(s + "\n");
+                return true;
+            }
+        }, nThreads, depth);
+        output.close();
+
+        System.out.printf("Total Solutions: %d%n", count.get());
     }
 
     private static void printUsage()
@@ -69,7 +76,10 @@ public class TetrisCubeSolver
         System.err.printf("\tjava %s <nThreads> <depth> <output_file>%n", TetrisCubeSolver.class.getName());
     }
 
-    private static List<Solution> solve(int nThreads, int depth)
+    /**
+     * Creates the Tetris cube puzzle.
+     */
+    public static PolycubePuzzle createPuzzle()
     {
         Map<String, Polycube> pieces = new HashMap<>();
 
@@ -86,7 +96,17 @@ public class TetrisCubeSolver
         pieces.put("Za", newZa());
         pieces.put("Zb", newZb());
 
-        return new PolycubePuzzle(4, 4, 4, pieces).solve(nThreads, depth);
+        return new PolycubePuzzle(4, 4, 4, pieces);
+    }
+
+    private static void solve(SolutionVisitor visitor, int nThreads, int depth)
+    {
+        createPuzzle().solve(visitor, nThreads, depth);
+    }
+
+    private static long countSolutions(int nThreads, int depth)
+    {
+        return createPuzzle().countSolutions(nThreads, depth);
     }
 
     private static Polycube newN()
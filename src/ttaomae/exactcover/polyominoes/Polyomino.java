@@ -58,6 +58,16 @@ public class Polyomino
         return Collections.<Block>unmodifiableSet(this.blocks);
     }
 
+    public int getWidth()
+    {
+        return this.width;
+    }
+
+    public int getHeight()
+    {
+        return this.height;
+    }
+
     private Polyomino transpose()
     {
         Collection<Block> newBlocks = new ArrayList<>();
@@ -1,20 +1,24 @@
 package ttaomae.exactcover.polyominoes;
 
 import java.util.ArrayList;
-import java.util.BitSet;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
-import ttaomae.exactcover.DancingLinks;
-import ttaomae.exactcover.DancingLinks.Solution;
 import ttaomae.exactcover.ExactCover;
+import ttaomae.exactcover.ExactCoverSolverFactory;
+import ttaomae.exactcover.ExactCoverSolvers;
+import ttaomae.exactcover.PhaseEvent;
+import ttaomae.exactcover.Solution;
+import ttaomae.exactcover.SolutionCollector;
+import ttaomae.exactcover.SolutionVisitor;
+import ttaomae.exactcover.SymmetryReduction;
 import ttaomae.exactcover.polyominoes.Polyomino.Block;
 
 public class PolyominoPuzzle
@@ -25,6 +29,9 @@ public class PolyominoPuzzle
     private int minY;
     private int maxX;
     private int maxY;
+    private boolean breakSymmetry;
+    private boolean expandSymmetry;
+    private ExactCoverSolverFactory solverFactory = ExactCoverSolvers.DEFAULT;
 
     public PolyominoPuzzle(int width, int height, Map<String, Polyomino> pieces)
     {
@@ -76,7 +83,74 @@ public class PolyominoPuzzle
         }
     }
 
+    /**
+     * Sets whether to only search for one solution from each class of
+     * solutions which are rotations or reflections of each other. Symmetry
+     * breaking is disabled by default.
+     */
+    public void setSymmetryBreaking(boolean breakSymmetry)
+    {
+        this.breakSymmetry = breakSymmetry;
+    }
+
+    /**
+     * Sets whether, when breaking symmetry, each solution found is expanded
+     * back into every rotation and reflection of it, so that every solution
+     * is still returned or counted.
+     */
+    public void setExpandSymmetry(boolean expandSymmetry)
+    {
+        this.expandSymmetry = expandSymmetry;
+    }
+
+    /**
+     * Sets the factory which creates the solver for each search, from the
+     * exact cover problem of this puzzle or its reduction. By default, the
+     * engine is chosen by {@link ExactCoverSolvers#create(ExactCover)},
+     * which picks BitsetAlgorithmX for small puzzles; a factory which
+     * returns a configured DancingLinks is needed to use its checkpoints,
+     * column choosers or metrics.
+     */
+    public void setSolverFactory(ExactCoverSolverFactory solverFactory)
+    {
+        if (solverFactory == null) {
+            throw new IllegalArgumentException("solverFactory must not be null");
+        }
+        this.solverFactory = solverFactory;
+    }
+
     public List<Solution> solve(int nThreads, int depth)
+    {
+        SolutionCollector collector = new SolutionCollector();
+        solve(collector, nThreads, depth);
+        return collector.getSolutions();
+    }
+
+    public void solve(SolutionVisitor visitor, int nThreads, int depth)
+    {
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be positive");
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must be non-negative");
+        }
+
+        if (!this.breakSymmetry) {
+            this.solverFactory.create(createExactCover()).solve(visitor, nThreads, depth);
+            return;
+        }
+
+        SymmetryReduction reduction = createReduction();
+        this.solverFactory.create(reduction.getExactCover()).solve(
+                reduction.filter(visitor, this.expandSymmetry), nThreads, depth);
+    }
+
+    public List<Solution> solve()
+    {
+        return solve(1, 0);
+    }
+
+    public long countSolutions(int nThreads, int depth)
     {
         if (nThreads < 1) {
             throw new IllegalArgumentException("numThreads must be positive");
@@ -85,66 +159,194 @@ public class PolyominoPuzzle
             throw new IllegalArgumentException("depth must be non-negative");
         }
 
-        List<String> names = new ArrayList<>();
+        if (!this.breakSymmetry) {
+            return this.solverFactory.create(createExactCover()).countSolutions(nThreads, depth);
+        }
+
+        SymmetryReduction reduction = createReduction();
+        return reduction.countSolutions(this.solverFactory.create(reduction.getExactCover()),
+                nThreads, depth, this.expandSymmetry);
+    }
+
+    public long countSolutions()
+    {
+        return countSolutions(1, 0);
+    }
 
+    /**
+     * Creates the exact cover problem for this puzzle, with a column for each
+     * piece followed by a column for each cell of the field, and a row for
+     * each placement of a piece.
+     */
+    public ExactCover createExactCover()
+    {
+        PhaseEvent event = new PhaseEvent("build exact cover");
+        event.begin();
+
+        int nPieces = this.pieces.size();
+        String[] names = new String[nPieces + this.puzzle.size()];
+        int column = 0;
         for (String s : this.pieces.keySet()) {
-            names.add(s);
+            names[column++] = s;
         }
         for (Block b : this.puzzle) {
-            names.add(b.toString().replaceAll("\\s", ""));
+            names[column++] = b.toString().replace(" ", "");
         }
 
-        Set<BitSet> rows = new HashSet<>();
-        for (Entry<String, Polyomino> piece : this.pieces.entrySet()) {
-            for (Polyomino transformation : piece.getValue().getFreeTransformations()) {
-                for (int x = this.minX; x <= this.maxX; x++) {
-                    for (int y = this.minY; y <= this.maxY; y++) {
-                        BitSet row = polyominoToBitSet(names, piece.getKey(), transformation, x, y);
-                        if (row != null) {
-                            rows.add(row);
+        int[] offsets = new int[1024];
+        int[] columns = new int[4096];
+        int nRows = 0;
+        if (!this.puzzle.isEmpty()) {
+            Block first = this.puzzle.first();
+            Block last = this.puzzle.last();
+            int minX = first.getX();
+            int width = 1 + last.getX() - minX;
+            int minY = Integer.MAX_VALUE;
+            int maxY = Integer.MIN_VALUE;
+            for (Block b : this.puzzle) {
+                minY = Math.min(minY, b.getY());
+                maxY = Math.max(maxY, b.getY());
+            }
+            int height = 1 + maxY - minY;
+
+            // the column of each cell of the bounding box, indexed by
+            // x * height + y, or -1 if the cell is not in the field. The
+            // field is sorted by x and then y, so the columns ascend with
+            // the index.
+            int[] cellColumns = new int[width * height];
+            Arrays.fill(cellColumns, -1);
+            column = nPieces;
+            for (Block b : this.puzzle) {
+                cellColumns[(b.getX() - minX) * height + (b.getY() - minY)] = column++;
+            }
+
+            int piece = 0;
+            for (Polyomino polyomino : this.pieces.values()) {
+                for (Polyomino transformation : polyomino.getFreeTransformations()) {
+                    int pieceWidth = transformation.getWidth();
+                    int pieceHeight = transformation.getHeight();
+                    if (pieceWidth > width || pieceHeight > height) {
+                        continue;
+                    }
+
+                    // the index of each block relative to the placement, in
+                    // ascending order so that each row is already sorted
+                    int[] cells = new int[transformation.getBlocks().size()];
+                    int i = 0;
+                    for (Block b : transformation.getBlocks()) {
+                        cells[i++] = b.getX() * height + b.getY();
+                    }
+                    Arrays.sort(cells);
+
+                    for (int x = 0; x + pieceWidth <= width; x++) {
+                        for (int y = 0; y + pieceHeight <= height; y++) {
+                            if (nRows + 1 == offsets.length) {
+                                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                            }
+                            int end = offsets[nRows];
+                            if (end + 1 + cells.length > columns.length) {
+                                columns = Arrays.copyOf(columns,
+                                        Math.max(columns.length * 2, end + 1 + cells.length));
+                            }
+
+                            int base = x * height + y;
+                            columns[end] = piece;
+                            int length = 1;
+                            for (int cell : cells) {
+                                int c = cellColumns[base + cell];
+                                if (c < 0) {
+                                    break;
+                                }
+                                columns[end + length++] = c;
+                            }
+                            if (length == 1 + cells.length) {
+                                offsets[++nRows] = end + length;
+                            }
                         }
                     }
                 }
+                piece++;
             }
         }
 
-        if (nThreads == 1) {
-            return new DancingLinks(
-                        new ExactCover(names.toArray(new String[0]), rows))
-                        .getSolutions();
-        }
-        else {
-            return new DancingLinks(
-                    new ExactCover(names.toArray(new String[0]), rows))
-                    .getSolutions(nThreads, depth);
-        }
+        // each transformation is distinct, so no two placements are the same
+        ExactCover ec = new ExactCover(names, names.length, Arrays.copyOf(offsets, nRows + 1),
+                columns, false);
+        event.commit();
+        return ec;
     }
 
-    public List<Solution> solve()
+    private SymmetryReduction createReduction()
     {
-        return solve(1, 0);
+        ExactCover ec = createExactCover();
+
+        PhaseEvent event = new PhaseEvent("reduce symmetry");
+        event.begin();
+        SymmetryReduction reduction = new SymmetryReduction(ec, findSymmetries());
+        event.commit();
+        return reduction;
     }
 
-    private BitSet polyominoToBitSet(List<String> columns, String name, Polyomino p, int x, int y)
+    /**
+     * Returns the rotations and reflections which map the field onto itself,
+     * as permutations of the columns of the exact cover. Every piece can be
+     * placed in each of its free transformations, so the piece columns are
+     * always left in place.
+     */
+    private List<int[]> findSymmetries()
     {
-        BitSet s = new BitSet();
-        // set column for name of piece
-        s.set(columnIndex(columns, name));
-        for (Block b : p.getBlocks()) {
-            // add x and y
-            String bs = new Block(b.getX() + x, b.getY() + y).toString().replaceAll("\\s", "");
-            int column = columnIndex(columns, bs);
-            if (column == -1) {
-                return null;
-            }
-            s.set(column);
+        int nPieces = this.pieces.size();
+
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        Map<Block, Integer> columns = new HashMap<>();
+        for (Block b : this.puzzle) {
+            minX = Math.min(minX, b.getX());
+            minY = Math.min(minY, b.getY());
+            maxX = Math.max(maxX, b.getX());
+            maxY = Math.max(maxY, b.getY());
+            columns.put(b, nPieces + columns.size());
         }
 
-        return s;
-    }
+        List<int[]> symmetries = new ArrayList<>();
+        // bit 0 flips x, bit 1 flips y and bit 2 swaps x and y
+        for (int t = 0; t < 8; t++) {
+            int[] symmetry = new int[nPieces + this.puzzle.size()];
+            for (int i = 0; i < nPieces; i++) {
+                symmetry[i] = i;
+            }
 
-    private static int columnIndex(List<String> columns, String c)
-    {
-        return columns.indexOf(c);
+            boolean isSymmetry = true;
+            for (Block b : this.puzzle) {
+                int x = b.getX() - minX;
+                int y = b.getY() - minY;
+                if ((t & 1) != 0) {
+                    x = (maxX - minX) - x;
+                }
+                if ((t & 2) != 0) {
+                    y = (maxY - minY) - y;
+                }
+                if ((t & 4) != 0) {
+                    int tmp = x;
+                    x = y;
+                    y = tmp;
+                }
+
+                Integer column = columns.get(new Block(minX + x, minY + y));
+                if (column == null) {
+                    isSymmetry = false;
+                    break;
+                }
+                symmetry[columns.get(b)] = column;
+            }
+
+            if (isSymmetry) {
+                symmetries.add(symmetry);
+            }
+        }
+
+        return symmetries;
     }
 }
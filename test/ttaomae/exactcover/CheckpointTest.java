@@ -0,0 +1,238 @@
+package ttaomae.exactcover;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ttaomae.exactcover.polyominoes.Pentomino;
+import ttaomae.exactcover.polyominoes.Polyomino;
+import ttaomae.exactcover.polyominoes.PolyominoPuzzle;
+
+/**
+ * Checks that a search stopped part way resumes from its checkpoint and
+ * finds exactly the remaining solutions.
+ */
+public class CheckpointTest
+{
+    private static final int RANDOM_INSTANCES = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResumeRandomInstances() throws IOException, DataFormatException
+    {
+        Random random = new Random(1);
+        for (int i = 0; i < RANDOM_INSTANCES; i++) {
+            ExactCover ec = randomExactCover(random);
+            int nThreads = 1 + random.nextInt(2);
+            assertResumes(ec, null, nThreads, random);
+            assertResumes(ec, new MinimumRemainingValues(), nThreads, random);
+        }
+    }
+
+    @Test
+    public void testResumePentominoes() throws IOException, DataFormatException
+    {
+        ExactCover ec = new PolyominoPuzzle(3, 20, createPentominoes()).createExactCover();
+        Random random = new Random(2);
+        for (int nThreads = 1; nThreads <= 2; nThreads++) {
+            assertResumes(ec, null, nThreads, random);
+            assertResumes(ec, new MinimumRemainingValues(), nThreads, random);
+        }
+    }
+
+    @Test
+    public void testFileDeletedOnCompletion() throws IOException, DataFormatException
+    {
+        ExactCover ec = new PolyominoPuzzle(3, 20, createPentominoes()).createExactCover();
+        File file = newCheckpointFile();
+
+        DancingLinks dl = new DancingLinks(ec);
+        dl.setCheckpoint(file, 1);
+        assertEquals(8, dl.countSolutions());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testDifferentProblemRejected() throws IOException, DataFormatException
+    {
+        String[] names = { "a", "b", "c", "d" };
+        Set<BitSet> rows = rows("1100", "0011", "1000", "0100", "0010", "0001");
+        File file = newCheckpointFile();
+        writeCheckpoint(new ExactCover(names, 4, rows), null, file);
+
+        // the same rows with a secondary column
+        assertRejected(new DancingLinks(new ExactCover(names, 3, rows)), file);
+        // an extra row
+        rows.add(rows("1111").iterator().next());
+        assertRejected(new DancingLinks(new ExactCover(names, 4, rows)), file);
+    }
+
+    @Test
+    public void testDifferentChooserRejected() throws IOException, DataFormatException
+    {
+        ExactCover ec = new PolyominoPuzzle(3, 20, createPentominoes()).createExactCover();
+        File file = newCheckpointFile();
+        writeCheckpoint(ec, MinimumRemainingValues.preferringDegree(), file);
+
+        assertRejected(new DancingLinks(ec), file);
+
+        DancingLinks dl = new DancingLinks(ec);
+        dl.setColumnChooser(new MinimumRemainingValues());
+        assertRejected(dl, file);
+
+        // changing the chooser after reading the checkpoint
+        dl = new DancingLinks(ec);
+        dl.setColumnChooser(MinimumRemainingValues.preferringDegree());
+        dl.setCheckpoint(file, 1000);
+        dl.setColumnChooser(null);
+        try {
+            dl.countSolutions();
+            fail("resumed with a different column chooser");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Stops a search after a random number of solutions, then resumes it
+     * from its checkpoint and checks that the solutions found before the
+     * stop and the count after resuming add up to every solution.
+     */
+    private void assertResumes(ExactCover ec, ColumnChooser chooser, int nThreads,
+                               Random random) throws IOException, DataFormatException
+    {
+        long expected = new DancingLinks(ec).countSolutions();
+        if (expected < 2) {
+            return;
+        }
+        final int stopAt = 1 + random.nextInt((int) expected - 1);
+        File file = newCheckpointFile();
+
+        final AtomicInteger found = new AtomicInteger();
+        DancingLinks dl = new DancingLinks(ec);
+        dl.setColumnChooser(chooser);
+        dl.setCheckpoint(file, 1);
+        dl.solve(new SolutionVisitor() {
+            @Override
+            public boolean visit(Solution solution)
+            {
+                return found.incrementAndGet() < stopAt;
+            }
+        }, nThreads, 0);
+        assertTrue("no final checkpoint", file.exists());
+
+        DancingLinks resumed = new DancingLinks(ec);
+        resumed.setColumnChooser(chooser);
+        resumed.setCheckpoint(file, 1);
+        // the count includes the solutions found before the stop
+        long count = resumed.countSolutions(nThreads, 0);
+        assertEquals(expected, count);
+        assertFalse("checkpoint left after completion", file.exists());
+    }
+
+    private static void writeCheckpoint(ExactCover ec, ColumnChooser chooser, File file)
+            throws IOException, DataFormatException
+    {
+        DancingLinks dl = new DancingLinks(ec);
+        dl.setColumnChooser(chooser);
+        dl.setCheckpoint(file, 1);
+        dl.solve(new SolutionVisitor() {
+            @Override
+            public boolean visit(Solution solution)
+            {
+                return false;
+            }
+        });
+        assertTrue(file.exists());
+    }
+
+    private static void assertRejected(DancingLinks dl, File file) throws IOException
+    {
+        try {
+            dl.setCheckpoint(file, 1);
+            fail("checkpoint was accepted");
+        } catch (DataFormatException e) {
+            // expected
+        }
+    }
+
+    private File newCheckpointFile() throws IOException
+    {
+        File file = this.folder.newFile();
+        assertTrue(file.delete());
+        return file;
+    }
+
+    private static ExactCover randomExactCover(Random random)
+    {
+        int nColumns = 4 + random.nextInt(10);
+        String[] names = new String[nColumns];
+        for (int col = 0; col < nColumns; col++) {
+            names[col] = "c" + col;
+        }
+
+        Set<BitSet> rows = new HashSet<>();
+        for (int r = 0; r < 40; r++) {
+            BitSet row = new BitSet();
+            for (int col = 0; col < nColumns; col++) {
+                if (random.nextInt(4) == 0) {
+                    row.set(col);
+                }
+            }
+            if (!row.isEmpty()) {
+                rows.add(row);
+            }
+        }
+        return new ExactCover(names, rows);
+    }
+
+    private static Set<BitSet> rows(String... rows)
+    {
+        Set<BitSet> result = new HashSet<>();
+        for (String row : rows) {
+            BitSet bits = new BitSet();
+            for (int col = 0; col < row.length(); col++) {
+                if (row.charAt(col) == '1') {
+                    bits.set(col);
+                }
+            }
+            result.add(bits);
+        }
+        return result;
+    }
+
+    private static Map<String, Polyomino> createPentominoes()
+    {
+        Map<String, Polyomino> pieces = new HashMap<>();
+        pieces.put("F", Pentomino.newF());
+        pieces.put("I", Pentomino.newI());
+        pieces.put("L", Pentomino.newL());
+        pieces.put("N", Pentomino.newN());
+        pieces.put("P", Pentomino.newP());
+        pieces.put("T", Pentomino.newT());
+        pieces.put("U", Pentomino.newU());
+        pieces.put("V", Pentomino.newV());
+        pieces.put("W", Pentomino.newW());
+        pieces.put("X", Pentomino.newX());
+        pieces.put("Y", Pentomino.newY());
+        pieces.put("Z", Pentomino.newZ());
+        return pieces;
+    }
+}
@@ -0,0 +1,169 @@
+package ttaomae.exactcover;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ttaomae.exactcover.polycubes.SomaCubeSolver;
+import ttaomae.exactcover.polyominoes.Pentomino;
+import ttaomae.exactcover.polyominoes.Polyomino;
+import ttaomae.exactcover.polyominoes.PolyominoPuzzle;
+
+/**
+ * Checks that DancingCells finds the same solutions as DancingLinks.
+ */
+public class DancingCellsTest
+{
+    private static final int RANDOM_INSTANCES = 300;
+
+    @Test
+    public void testRandomInstances()
+    {
+        Random random = new Random(1);
+        for (int i = 0; i < RANDOM_INSTANCES; i++) {
+            assertSameSolutions(randomExactCover(random, false));
+        }
+    }
+
+    @Test
+    public void testRandomInstancesWithSecondaryColumns()
+    {
+        Random random = new Random(2);
+        for (int i = 0; i < RANDOM_INSTANCES; i++) {
+            assertSameSolutions(randomExactCover(random, true));
+        }
+    }
+
+    @Test
+    public void testSecondaryColumns()
+    {
+        // x may be covered at most once, so a x and b x are not both used
+        ExactCover ec = new ExactCover(new String[] { "a", "b", "c", "x" }, 3,
+                rows("1010", "0101", "0100", "1001", "0010"));
+        assertSameSolutions(ec);
+        assertEquals(3, new DancingCells(ec).countSolutions());
+    }
+
+    @Test
+    public void testParallelCount()
+    {
+        Random random = new Random(3);
+        for (int i = 0; i < RANDOM_INSTANCES; i++) {
+            ExactCover ec = randomExactCover(random, true);
+            assertEquals(new DancingLinks(ec).countSolutions(),
+                    new DancingCells(ec).countSolutions(2, 0));
+        }
+    }
+
+    @Test
+    public void testPentominoes()
+    {
+        ExactCover ec = new PolyominoPuzzle(3, 20, createPentominoes()).createExactCover();
+        assertSameSolutions(ec);
+        assertEquals(8, new DancingCells(ec).countSolutions());
+    }
+
+    @Test
+    public void testSomaCube()
+    {
+        ExactCover ec = SomaCubeSolver.createPuzzle().createExactCover();
+        assertSameSolutions(ec);
+        assertEquals(11520, new DancingCells(ec).countSolutions());
+    }
+
+    private static void assertSameSolutions(ExactCover ec)
+    {
+        DancingLinks dl = new DancingLinks(ec);
+        DancingCells cells = new DancingCells(ec);
+
+        Set<Set<String>> expected = toSet(dl.getSolutions());
+        assertEquals(expected, toSet(cells.getSolutions()));
+        assertEquals(dl.countSolutions(), cells.countSolutions());
+        assertEquals(expected.size(), cells.countSolutions());
+    }
+
+    /**
+     * Returns each solution as the set of its rows, so that solutions can be
+     * compared regardless of the order of their rows or of the solutions.
+     */
+    private static Set<Set<String>> toSet(List<Solution> solutions)
+    {
+        Set<Set<String>> result = new HashSet<>();
+        for (Solution solution : solutions) {
+            Set<String> rows = new HashSet<>();
+            for (int[] row : solution.getRows()) {
+                rows.add(Arrays.toString(row));
+            }
+            result.add(rows);
+        }
+        assertEquals("a solution was found more than once", solutions.size(), result.size());
+        return result;
+    }
+
+    private static ExactCover randomExactCover(Random random, boolean secondary)
+    {
+        int nColumns = 1 + random.nextInt(10);
+        int nPrimary = secondary ? 1 + random.nextInt(nColumns) : nColumns;
+        String[] names = new String[nColumns];
+        for (int col = 0; col < nColumns; col++) {
+            names[col] = "c" + col;
+        }
+
+        int nRows = 1 + random.nextInt(25);
+        Set<BitSet> rows = new HashSet<>();
+        for (int r = 0; r < nRows; r++) {
+            BitSet row = new BitSet();
+            while (row.isEmpty()) {
+                for (int col = 0; col < nColumns; col++) {
+                    if (random.nextInt(3) == 0) {
+                        row.set(col);
+                    }
+                }
+            }
+            rows.add(row);
+        }
+        return new ExactCover(names, nPrimary, rows);
+    }
+
+    private static Set<BitSet> rows(String... rows)
+    {
+        Set<BitSet> result = new HashSet<>();
+        for (String row : rows) {
+            BitSet bits = new BitSet();
+            for (int col = 0; col < row.length(); col++) {
+                if (row.charAt(col) == '1') {
+                    bits.set(col);
+                }
+            }
+            result.add(bits);
+        }
+        return result;
+    }
+
+    private static Map<String, Polyomino> createPentominoes()
+    {
+        Map<String, Polyomino> pieces = new HashMap<>();
+        pieces.put("F", Pentomino.newF());
+        pieces.put("I", Pentomino.newI());
+        pieces.put("L", Pentomino.newL());
+        pieces.put("N", Pentomino.newN());
+        pieces.put("P", Pentomino.newP());
+        pieces.put("T", Pentomino.newT());
+        pieces.put("U", Pentomino.newU());
+        pieces.put("V", Pentomino.newV());
+        pieces.put("W", Pentomino.newW());
+        pieces.put("X", Pentomino.newX());
+        pieces.put("Y", Pentomino.newY());
+        pieces.put("Z", Pentomino.newZ());
+        return pieces;
+    }
+}
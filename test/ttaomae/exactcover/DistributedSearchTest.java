@@ -0,0 +1,200 @@
+package ttaomae.exactcover;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import ttaomae.exactcover.polyominoes.Pentomino;
+import ttaomae.exactcover.polyominoes.Polyomino;
+import ttaomae.exactcover.polyominoes.PolyominoPuzzle;
+
+/**
+ * Checks that a SearchCoordinator finds every solution exactly once with
+ * workers on the loopback address, including when a worker disconnects in
+ * the middle of a unit.
+ */
+public class DistributedSearchTest
+{
+    private static final String LOOPBACK = InetAddress.getLoopbackAddress().getHostAddress();
+
+    @Test(timeout = 60000)
+    public void testCount() throws Exception
+    {
+        ExactCover ec = new PolyominoPuzzle(4, 15, createPentominoes()).createExactCover();
+        SearchCoordinator coordinator = new SearchCoordinator(ec, 2, 0,
+                InetAddress.getLoopbackAddress());
+
+        List<Thread> workers = startWorkers(coordinator.getPort(), 2);
+        assertEquals(1472, coordinator.countSolutions());
+        joinWorkers(workers);
+    }
+
+    @Test(timeout = 60000)
+    public void testSolve() throws Exception
+    {
+        ExactCover ec = new PolyominoPuzzle(3, 20, createPentominoes()).createExactCover();
+        SearchCoordinator coordinator = new SearchCoordinator(ec, 2, 0,
+                InetAddress.getLoopbackAddress());
+
+        List<Thread> workers = startWorkers(coordinator.getPort(), 2);
+        SolutionCollector collector = new SolutionCollector();
+        coordinator.solve(collector);
+        joinWorkers(workers);
+
+        assertEquals(toSet(new DancingLinks(ec).getSolutions()),
+                toSet(collector.getSolutions()));
+    }
+
+    /**
+     * A worker which takes a unit, sends a solution and then disconnects
+     * before its result must have its unit searched again by another
+     * worker, without its solution or count being kept.
+     */
+    @Test(timeout = 60000)
+    public void testWorkerDisconnectsMidUnit() throws Exception
+    {
+        ExactCover ec = new PolyominoPuzzle(3, 20, createPentominoes()).createExactCover();
+        List<Solution> expected = new DancingLinks(ec).getSolutions();
+        final SearchCoordinator coordinator = new SearchCoordinator(ec, 2, 0,
+                InetAddress.getLoopbackAddress());
+        coordinator.setTimeout(5000);
+
+        final SolutionCollector collector = new SolutionCollector();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        Thread search = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    coordinator.solve(collector);
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            }
+        });
+        search.start();
+
+        // no other worker is connected, so this worker is given a unit
+        try (Socket socket = new Socket(LOOPBACK, coordinator.getPort())) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(SearchCoordinator.MAGIC);
+            out.flush();
+
+            in.readBoolean();
+            in.readLong();
+            SearchWorker.readProblem(in);
+            in.readLong();
+
+            assertEquals(SearchCoordinator.UNIT, in.readByte());
+            in.readInt();
+            int[] unit = new int[in.readInt()];
+            for (int i = 0; i < unit.length; i++) {
+                unit[i] = in.readInt();
+            }
+
+            // a solution which must not be passed on, since the unit is
+            // never finished
+            List<int[]> rows = expected.get(0).getRows();
+            out.writeByte(SearchCoordinator.SOLUTION);
+            out.writeInt(rows.size());
+            out.writeBoolean(false);
+            for (int[] row : rows) {
+                SearchCoordinator.writeNodes(out, row);
+            }
+            out.flush();
+        }
+
+        List<Thread> workers = startWorkers(coordinator.getPort(), 2);
+        search.join();
+        joinWorkers(workers);
+
+        if (error.get() != null) {
+            throw error.get();
+        }
+        assertEquals(expected.size(), collector.getSolutions().size());
+        assertEquals(toSet(expected), toSet(collector.getSolutions()));
+    }
+
+    private static List<Thread> startWorkers(final int port, int nWorkers)
+    {
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < nWorkers; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        new SearchWorker(LOOPBACK, port, 1).run();
+                    } catch (IOException | DataFormatException e) {
+                        // the coordinator reports a missing result
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        return workers;
+    }
+
+    private static void joinWorkers(List<Thread> workers) throws InterruptedException
+    {
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * Returns each solution as the set of its rows, so that solutions can be
+     * compared regardless of the order of their rows or of the solutions.
+     */
+    private static Set<Set<String>> toSet(List<Solution> solutions)
+    {
+        Set<Set<String>> result = new HashSet<>();
+        for (Solution solution : solutions) {
+            Set<String> rows = new HashSet<>();
+            for (int[] row : solution.getRows()) {
+                rows.add(Arrays.toString(row));
+            }
+            result.add(rows);
+        }
+        assertEquals("a solution was found more than once", solutions.size(), result.size());
+        return result;
+    }
+
+    private static Map<String, Polyomino> createPentominoes()
+    {
+        Map<String, Polyomino> pieces = new HashMap<>();
+        pieces.put("F", Pentomino.newF());
+        pieces.put("I", Pentomino.newI());
+        pieces.put("L", Pentomino.newL());
+        pieces.put("N", Pentomino.newN());
+        pieces.put("P", Pentomino.newP());
+        pieces.put("T", Pentomino.newT());
+        pieces.put("U", Pentomino.newU());
+        pieces.put("V", Pentomino.newV());
+        pieces.put("W", Pentomino.newW());
+        pieces.put("X", Pentomino.newX());
+        pieces.put("Y", Pentomino.newY());
+        pieces.put("Z", Pentomino.newZ());
+        return pieces;
+    }
+}